@@ -0,0 +1,8 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.app;
+
+public class Notification {
+}
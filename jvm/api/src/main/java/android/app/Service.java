@@ -0,0 +1,22 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.app;
+
+import android.content.ContextWrapper;
+
+public abstract class Service extends ContextWrapper {
+	public Service() {
+		super(null);
+	}
+
+	public final void setForeground(boolean isForeground) {
+	}
+
+	public final void startForeground(int id, Notification notification) {
+	}
+
+	public final void stopForeground(boolean removeNotification) {
+	}
+}
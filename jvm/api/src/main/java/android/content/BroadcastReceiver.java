@@ -0,0 +1,9 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.content;
+
+public abstract class BroadcastReceiver {
+	public abstract void onReceive(Context context, Intent intent);
+}
@@ -0,0 +1,23 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.content;
+
+public final class ComponentName {
+	private final String myPackage;
+	private final String myClass;
+
+	public ComponentName(String pkg, String cls) {
+		myPackage = pkg;
+		myClass = cls;
+	}
+
+	public String getPackageName() {
+		return myPackage;
+	}
+
+	public String getClassName() {
+		return myClass;
+	}
+}
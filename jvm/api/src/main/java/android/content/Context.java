@@ -0,0 +1,33 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.content;
+
+import java.io.File;
+
+/*
+ * Stand-ins for the Android classes used by the plugin, for running its
+ * code on a plain JVM. Only the members used by the plugin are declared;
+ * the behaviour is the documented one as far as the plugin depends on it.
+ */
+public abstract class Context {
+	public static final int MODE_PRIVATE = 0;
+	public static final int BIND_AUTO_CREATE = 1;
+	public static final String POWER_SERVICE = "power";
+	public static final String NOTIFICATION_SERVICE = "notification";
+
+	public abstract boolean bindService(Intent service, ServiceConnection connection, int flags);
+	public abstract void unbindService(ServiceConnection connection);
+	public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+	public abstract void unregisterReceiver(BroadcastReceiver receiver);
+
+	public abstract Object getSystemService(String name);
+	public abstract SharedPreferences getSharedPreferences(String name, int mode);
+	public abstract String getPackageName();
+	public abstract File getCacheDir();
+	public abstract File getExternalCacheDir();
+
+	// final in Android, resolved through the resources
+	public abstract CharSequence getText(int resId);
+}
@@ -0,0 +1,69 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.content;
+
+import java.io.File;
+
+public class ContextWrapper extends Context {
+	private final Context myBase;
+
+	public ContextWrapper(Context base) {
+		myBase = base;
+	}
+
+	public Context getBaseContext() {
+		return myBase;
+	}
+
+	@Override
+	public boolean bindService(Intent service, ServiceConnection connection, int flags) {
+		return myBase.bindService(service, connection, flags);
+	}
+
+	@Override
+	public void unbindService(ServiceConnection connection) {
+		myBase.unbindService(connection);
+	}
+
+	@Override
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+		return myBase.registerReceiver(receiver, filter);
+	}
+
+	@Override
+	public void unregisterReceiver(BroadcastReceiver receiver) {
+		myBase.unregisterReceiver(receiver);
+	}
+
+	@Override
+	public Object getSystemService(String name) {
+		return myBase.getSystemService(name);
+	}
+
+	@Override
+	public SharedPreferences getSharedPreferences(String name, int mode) {
+		return myBase.getSharedPreferences(name, mode);
+	}
+
+	@Override
+	public String getPackageName() {
+		return myBase.getPackageName();
+	}
+
+	@Override
+	public File getCacheDir() {
+		return myBase.getCacheDir();
+	}
+
+	@Override
+	public File getExternalCacheDir() {
+		return myBase.getExternalCacheDir();
+	}
+
+	@Override
+	public CharSequence getText(int resId) {
+		return myBase.getText(resId);
+	}
+}
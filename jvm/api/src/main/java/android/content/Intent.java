@@ -0,0 +1,43 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.content;
+
+import java.util.HashMap;
+
+public class Intent {
+	public static final String ACTION_SCREEN_OFF = "android.intent.action.SCREEN_OFF";
+	public static final String ACTION_SCREEN_ON = "android.intent.action.SCREEN_ON";
+
+	private final String myAction;
+	private final HashMap<String,Object> myExtras = new HashMap<String,Object>();
+
+	public Intent(String action) {
+		myAction = action;
+	}
+
+	public String getAction() {
+		return myAction;
+	}
+
+	public Intent putExtra(String name, int value) {
+		myExtras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, String value) {
+		myExtras.put(name, value);
+		return this;
+	}
+
+	public int getIntExtra(String name, int defaultValue) {
+		final Object value = myExtras.get(name);
+		return value instanceof Integer ? (Integer)value : defaultValue;
+	}
+
+	public String getStringExtra(String name) {
+		final Object value = myExtras.get(name);
+		return value instanceof String ? (String)value : null;
+	}
+}
@@ -0,0 +1,23 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.content;
+
+import java.util.ArrayList;
+
+public class IntentFilter {
+	private final ArrayList<String> myActions = new ArrayList<String>();
+
+	public IntentFilter(String action) {
+		myActions.add(action);
+	}
+
+	public final void addAction(String action) {
+		myActions.add(action);
+	}
+
+	public final boolean hasAction(String action) {
+		return myActions.contains(action);
+	}
+}
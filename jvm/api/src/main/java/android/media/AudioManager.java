@@ -0,0 +1,9 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.media;
+
+public class AudioManager {
+	public static final int STREAM_MUSIC = 3;
+}
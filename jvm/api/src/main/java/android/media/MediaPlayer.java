@@ -0,0 +1,41 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.media;
+
+import java.io.IOException;
+
+// there is no audio output on the JVM, prepare() always fails
+public class MediaPlayer {
+	public interface OnCompletionListener {
+		void onCompletion(MediaPlayer player);
+	}
+
+	public interface OnErrorListener {
+		boolean onError(MediaPlayer player, int what, int extra);
+	}
+
+	public void setAudioStreamType(int streamType) {
+	}
+
+	public void setDataSource(String path) throws IOException {
+	}
+
+	public void setOnCompletionListener(OnCompletionListener listener) {
+	}
+
+	public void setOnErrorListener(OnErrorListener listener) {
+	}
+
+	public void prepare() throws IOException {
+		throw new IOException("No audio output");
+	}
+
+	public void start() {
+		throw new IllegalStateException();
+	}
+
+	public void release() {
+	}
+}
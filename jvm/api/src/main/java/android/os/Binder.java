@@ -0,0 +1,43 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+/*
+ * A local binder: it never dies, so death recipients are never called.
+ * transact() runs onTransact() on the calling thread.
+ */
+public class Binder implements IBinder {
+	private IInterface myOwner;
+	private String myDescriptor;
+
+	public void attachInterface(IInterface owner, String descriptor) {
+		myOwner = owner;
+		myDescriptor = descriptor;
+	}
+
+	public IInterface queryLocalInterface(String descriptor) {
+		return descriptor.equals(myDescriptor) ? myOwner : null;
+	}
+
+	public final boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+		data.setDataPosition(0);
+		final boolean result = onTransact(code, data, reply, flags);
+		if (reply != null) {
+			reply.setDataPosition(0);
+		}
+		return result;
+	}
+
+	protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+		return false;
+	}
+
+	public void linkToDeath(DeathRecipient recipient, int flags) {
+	}
+
+	public boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+		return true;
+	}
+}
@@ -0,0 +1,12 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+public class Build {
+	public static class VERSION {
+		// the platform the plugin is built against
+		public static final int SDK_INT = 8;
+	}
+}
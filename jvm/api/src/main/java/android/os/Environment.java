@@ -0,0 +1,21 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+import java.io.File;
+
+// there is no external storage on the JVM
+public class Environment {
+	public static final String MEDIA_MOUNTED = "mounted";
+	public static final String MEDIA_REMOVED = "removed";
+
+	public static String getExternalStorageState() {
+		return MEDIA_REMOVED;
+	}
+
+	public static File getExternalStorageDirectory() {
+		return new File("/sdcard");
+	}
+}
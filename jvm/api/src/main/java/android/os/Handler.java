@@ -0,0 +1,31 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+// runnables only, the plugin's own message queues do not use Handler on the JVM
+public class Handler {
+	private final Looper myLooper;
+
+	public Handler(Looper looper) {
+		myLooper = looper;
+	}
+
+	public final Looper getLooper() {
+		return myLooper;
+	}
+
+	public final boolean post(Runnable r) {
+		return postDelayed(r, 0);
+	}
+
+	public final boolean postDelayed(Runnable r, long delayMillis) {
+		myLooper.enqueue(this, r, SystemClock.uptimeMillis() + Math.max(delayMillis, 0));
+		return true;
+	}
+
+	public final void removeCallbacks(Runnable r) {
+		myLooper.remove(this, r);
+	}
+}
@@ -0,0 +1,18 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+public interface IBinder {
+	int FIRST_CALL_TRANSACTION = 1;
+
+	interface DeathRecipient {
+		void binderDied();
+	}
+
+	IInterface queryLocalInterface(String descriptor);
+	boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException;
+	void linkToDeath(DeathRecipient recipient, int flags) throws RemoteException;
+	boolean unlinkToDeath(DeathRecipient recipient, int flags);
+}
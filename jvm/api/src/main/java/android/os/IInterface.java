@@ -0,0 +1,9 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+public interface IInterface {
+	IBinder asBinder();
+}
@@ -0,0 +1,93 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+import java.util.*;
+
+/*
+ * A message loop on its own daemon thread. Only the main looper exists,
+ * it runs the runnables posted by handlers in time order.
+ */
+public final class Looper {
+	private static final Looper ourMainLooper = new Looper("main");
+
+	private static final class Entry {
+		final Handler Target;
+		final Runnable Callback;
+		final long When;
+		final long Sequence;
+
+		Entry(Handler target, Runnable callback, long when, long sequence) {
+			Target = target;
+			Callback = callback;
+			When = when;
+			Sequence = sequence;
+		}
+	}
+
+	private final TreeSet<Entry> myQueue = new TreeSet<Entry>(new Comparator<Entry>() {
+		public int compare(Entry e0, Entry e1) {
+			if (e0.When != e1.When) {
+				return e0.When < e1.When ? -1 : 1;
+			}
+			return e0.Sequence < e1.Sequence ? -1 : (e0.Sequence == e1.Sequence ? 0 : 1);
+		}
+	});
+	private long mySequence;
+	private final Thread myThread;
+
+	private Looper(String name) {
+		myThread = new Thread(name) {
+			public void run() {
+				loop();
+			}
+		};
+		myThread.setDaemon(true);
+		myThread.start();
+	}
+
+	public static Looper getMainLooper() {
+		return ourMainLooper;
+	}
+
+	public Thread getThread() {
+		return myThread;
+	}
+
+	synchronized void enqueue(Handler target, Runnable callback, long when) {
+		myQueue.add(new Entry(target, callback, when, mySequence++));
+		notifyAll();
+	}
+
+	synchronized void remove(Handler target, Runnable callback) {
+		for (Iterator<Entry> it = myQueue.iterator(); it.hasNext(); ) {
+			final Entry entry = it.next();
+			if (entry.Target == target && (callback == null || entry.Callback == callback)) {
+				it.remove();
+			}
+		}
+	}
+
+	private void loop() {
+		while (true) {
+			final Entry entry;
+			synchronized (this) {
+				try {
+					while (myQueue.isEmpty() || myQueue.first().When > SystemClock.uptimeMillis()) {
+						if (myQueue.isEmpty()) {
+							wait();
+						} else {
+							wait(Math.max(myQueue.first().When - SystemClock.uptimeMillis(), 1));
+						}
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				entry = myQueue.pollFirst();
+			}
+			entry.Callback.run();
+		}
+	}
+}
@@ -0,0 +1,446 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+import java.util.*;
+
+/*
+ * A growable byte buffer with the Parcel layout of Android: 32-bit
+ * little-endian ints, bytes and booleans written as ints, strings as
+ * UTF-16 with a length and a terminator padded to 4 bytes, -1 for null
+ * strings and arrays. Binder objects and file descriptors are not
+ * supported, map values are limited to what ApiInterface returns.
+ * obtain() and recycle() keep a small pool as Android does.
+ */
+public final class Parcel {
+	private static final int POOL_SIZE = 6;
+	private static final Parcel[] ourPool = new Parcel[POOL_SIZE];
+
+	// writeValue() codes
+	private static final int VAL_NULL = -1;
+	private static final int VAL_STRING = 0;
+	private static final int VAL_INTEGER = 1;
+	private static final int VAL_MAP = 2;
+	private static final int VAL_PARCELABLE = 4;
+	private static final int VAL_LONG = 6;
+	private static final int VAL_BOOLEAN = 9;
+
+	// writeException() codes
+	private static final int EX_SECURITY = -1;
+	private static final int EX_ILLEGAL_ARGUMENT = -3;
+	private static final int EX_NULL_POINTER = -4;
+	private static final int EX_ILLEGAL_STATE = -5;
+
+	private byte[] myData = new byte[256];
+	private int mySize;
+	private int myPosition;
+
+	private Parcel() {
+	}
+
+	public static Parcel obtain() {
+		synchronized (ourPool) {
+			for (int i = 0; i < POOL_SIZE; ++i) {
+				final Parcel parcel = ourPool[i];
+				if (parcel != null) {
+					ourPool[i] = null;
+					return parcel;
+				}
+			}
+		}
+		return new Parcel();
+	}
+
+	public void recycle() {
+		mySize = 0;
+		myPosition = 0;
+		synchronized (ourPool) {
+			for (int i = 0; i < POOL_SIZE; ++i) {
+				if (ourPool[i] == null) {
+					ourPool[i] = this;
+					return;
+				}
+			}
+		}
+	}
+
+	public int dataSize() {
+		return mySize;
+	}
+
+	public int dataAvail() {
+		return mySize - myPosition;
+	}
+
+	public int dataPosition() {
+		return myPosition;
+	}
+
+	public void setDataPosition(int position) {
+		myPosition = position;
+	}
+
+	public void setDataSize(int size) {
+		ensureCapacity(size);
+		mySize = size;
+		if (myPosition > size) {
+			myPosition = size;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > myData.length) {
+			final byte[] data = new byte[Math.max(capacity, myData.length * 2)];
+			System.arraycopy(myData, 0, data, 0, mySize);
+			myData = data;
+		}
+	}
+
+	// reserves length bytes at the current position and returns their offset
+	private int grow(int length) {
+		final int offset = myPosition;
+		ensureCapacity(offset + length);
+		myPosition += length;
+		if (myPosition > mySize) {
+			mySize = myPosition;
+		}
+		return offset;
+	}
+
+	// returns the offset of length bytes to be read at the current position
+	private int advance(int length) {
+		final int offset = myPosition;
+		if (offset + length > mySize) {
+			throw new RuntimeException("Parcel underflow at " + offset + ", size " + mySize);
+		}
+		myPosition += length;
+		return offset;
+	}
+
+	public void writeInt(int value) {
+		final int offset = grow(4);
+		final byte[] data = myData;
+		data[offset] = (byte)value;
+		data[offset + 1] = (byte)(value >> 8);
+		data[offset + 2] = (byte)(value >> 16);
+		data[offset + 3] = (byte)(value >> 24);
+	}
+
+	public void writeLong(long value) {
+		writeInt((int)value);
+		writeInt((int)(value >> 32));
+	}
+
+	public void writeByte(byte value) {
+		writeInt(value);
+	}
+
+	public void writeString(String value) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		final int length = value.length();
+		writeInt(length);
+		// characters and the terminator, padded to 4 bytes
+		final int offset = grow(((length + 1) * 2 + 3) & ~3);
+		final byte[] data = myData;
+		for (int i = 0; i < length; ++i) {
+			final char ch = value.charAt(i);
+			data[offset + 2 * i] = (byte)ch;
+			data[offset + 2 * i + 1] = (byte)(ch >> 8);
+		}
+		for (int i = offset + 2 * length; i < myPosition; ++i) {
+			data[i] = 0;
+		}
+	}
+
+	public void writeIntArray(int[] value) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(value.length);
+		for (int v : value) {
+			writeInt(v);
+		}
+	}
+
+	public void writeStringArray(String[] value) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(value.length);
+		for (String v : value) {
+			writeString(v);
+		}
+	}
+
+	public <T extends Parcelable> void writeTypedArray(T[] value, int flags) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(value.length);
+		for (T v : value) {
+			writeTypedObject(v, flags);
+		}
+	}
+
+	public <T extends Parcelable> void writeTypedList(List<T> value) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		final int size = value.size();
+		writeInt(size);
+		for (int i = 0; i < size; ++i) {
+			writeTypedObject(value.get(i), 0);
+		}
+	}
+
+	private void writeTypedObject(Parcelable value, int flags) {
+		if (value != null) {
+			writeInt(1);
+			value.writeToParcel(this, flags);
+		} else {
+			writeInt(0);
+		}
+	}
+
+	public void writeValue(Object value) {
+		if (value == null) {
+			writeInt(VAL_NULL);
+		} else if (value instanceof String) {
+			writeInt(VAL_STRING);
+			writeString((String)value);
+		} else if (value instanceof Integer) {
+			writeInt(VAL_INTEGER);
+			writeInt((Integer)value);
+		} else if (value instanceof Map) {
+			writeInt(VAL_MAP);
+			writeMap((Map)value);
+		} else if (value instanceof Parcelable) {
+			writeInt(VAL_PARCELABLE);
+			writeString(value.getClass().getName());
+			((Parcelable)value).writeToParcel(this, 0);
+		} else if (value instanceof Long) {
+			writeInt(VAL_LONG);
+			writeLong((Long)value);
+		} else if (value instanceof Boolean) {
+			writeInt(VAL_BOOLEAN);
+			writeInt((Boolean)value ? 1 : 0);
+		} else {
+			throw new RuntimeException("Parcel: unable to marshal value " + value);
+		}
+	}
+
+	public void writeMap(Map value) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(value.size());
+		for (Object e : value.entrySet()) {
+			final Map.Entry entry = (Map.Entry)e;
+			writeValue(entry.getKey());
+			writeValue(entry.getValue());
+		}
+	}
+
+	public void writeInterfaceToken(String descriptor) {
+		// strict mode policy
+		writeInt(0);
+		writeString(descriptor);
+	}
+
+	public void writeNoException() {
+		writeInt(0);
+	}
+
+	public void writeException(Exception e) {
+		final int code;
+		if (e instanceof SecurityException) {
+			code = EX_SECURITY;
+		} else if (e instanceof IllegalArgumentException) {
+			code = EX_ILLEGAL_ARGUMENT;
+		} else if (e instanceof NullPointerException) {
+			code = EX_NULL_POINTER;
+		} else if (e instanceof IllegalStateException) {
+			code = EX_ILLEGAL_STATE;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException)e;
+		} else {
+			throw new RuntimeException(e);
+		}
+		writeInt(code);
+		writeString(e.getMessage());
+	}
+
+	public int readInt() {
+		final int offset = advance(4);
+		final byte[] data = myData;
+		return
+			(data[offset] & 0xFF) |
+			(data[offset + 1] & 0xFF) << 8 |
+			(data[offset + 2] & 0xFF) << 16 |
+			(data[offset + 3] & 0xFF) << 24;
+	}
+
+	public long readLong() {
+		final long low = readInt() & 0xFFFFFFFFL;
+		return low | (long)readInt() << 32;
+	}
+
+	public byte readByte() {
+		return (byte)readInt();
+	}
+
+	public String readString() {
+		final int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		final int offset = advance(((length + 1) * 2 + 3) & ~3);
+		final byte[] data = myData;
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; ++i) {
+			chars[i] = (char)((data[offset + 2 * i] & 0xFF) | (data[offset + 2 * i + 1] & 0xFF) << 8);
+		}
+		return new String(chars);
+	}
+
+	// the length is checked against the data left, a corrupted parcel does not allocate a huge array
+	private int readLength(int minElementSize) {
+		final int length = readInt();
+		if (length > dataAvail() / minElementSize) {
+			throw new RuntimeException("Parcel: bad array length " + length);
+		}
+		return length;
+	}
+
+	public int[] createIntArray() {
+		final int length = readLength(4);
+		if (length < 0) {
+			return null;
+		}
+		final int[] array = new int[length];
+		for (int i = 0; i < length; ++i) {
+			array[i] = readInt();
+		}
+		return array;
+	}
+
+	public String[] createStringArray() {
+		final int length = readLength(4);
+		if (length < 0) {
+			return null;
+		}
+		final String[] array = new String[length];
+		for (int i = 0; i < length; ++i) {
+			array[i] = readString();
+		}
+		return array;
+	}
+
+	public <T> T[] createTypedArray(Parcelable.Creator<T> creator) {
+		final int length = readLength(4);
+		if (length < 0) {
+			return null;
+		}
+		final T[] array = creator.newArray(length);
+		for (int i = 0; i < length; ++i) {
+			array[i] = readInt() != 0 ? creator.createFromParcel(this) : null;
+		}
+		return array;
+	}
+
+	public <T> ArrayList<T> createTypedArrayList(Parcelable.Creator<T> creator) {
+		final int length = readLength(4);
+		if (length < 0) {
+			return null;
+		}
+		final ArrayList<T> list = new ArrayList<T>(length);
+		for (int i = 0; i < length; ++i) {
+			list.add(readInt() != 0 ? creator.createFromParcel(this) : null);
+		}
+		return list;
+	}
+
+	public Object readValue(ClassLoader loader) {
+		final int type = readInt();
+		switch (type) {
+			case VAL_NULL:
+				return null;
+			case VAL_STRING:
+				return readString();
+			case VAL_INTEGER:
+				return readInt();
+			case VAL_MAP:
+				return readHashMap(loader);
+			case VAL_PARCELABLE:
+				return readParcelable(loader);
+			case VAL_LONG:
+				return readLong();
+			case VAL_BOOLEAN:
+				return readInt() != 0;
+			default:
+				throw new RuntimeException("Parcel: unmarshalling unknown type code " + type);
+		}
+	}
+
+	private Object readParcelable(ClassLoader loader) {
+		final String name = readString();
+		try {
+			final Class<?> clazz = Class.forName(name, true, loader != null ? loader : Parcel.class.getClassLoader());
+			final Parcelable.Creator<?> creator = (Parcelable.Creator<?>)clazz.getField("CREATOR").get(null);
+			return creator.createFromParcel(this);
+		} catch (Exception e) {
+			throw new RuntimeException("Parcel: unable to unmarshal " + name, e);
+		}
+	}
+
+	public HashMap readHashMap(ClassLoader loader) {
+		final int size = readLength(8);
+		if (size < 0) {
+			return null;
+		}
+		final HashMap<Object,Object> map = new HashMap<Object,Object>();
+		for (int i = 0; i < size; ++i) {
+			final Object key = readValue(loader);
+			map.put(key, readValue(loader));
+		}
+		return map;
+	}
+
+	public void enforceInterface(String descriptor) {
+		readInt();
+		final String token = readString();
+		if (!descriptor.equals(token)) {
+			throw new SecurityException("Binder invocation to an incorrect interface " + token);
+		}
+	}
+
+	public void readException() {
+		final int code = readInt();
+		if (code == 0) {
+			return;
+		}
+		final String message = readString();
+		switch (code) {
+			case EX_SECURITY:
+				throw new SecurityException(message);
+			case EX_ILLEGAL_ARGUMENT:
+				throw new IllegalArgumentException(message);
+			case EX_NULL_POINTER:
+				throw new NullPointerException(message);
+			case EX_ILLEGAL_STATE:
+				throw new IllegalStateException(message);
+			default:
+				throw new RuntimeException("Unknown exception code: " + code + " msg " + message);
+		}
+	}
+}
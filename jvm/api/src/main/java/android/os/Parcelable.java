@@ -0,0 +1,17 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+public interface Parcelable {
+	int PARCELABLE_WRITE_RETURN_VALUE = 1;
+
+	interface Creator<T> {
+		T createFromParcel(Parcel source);
+		T[] newArray(int size);
+	}
+
+	int describeContents();
+	void writeToParcel(Parcel dest, int flags);
+}
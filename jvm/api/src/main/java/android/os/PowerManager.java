@@ -0,0 +1,40 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+// the screen is always on, wake locks do nothing
+public class PowerManager {
+	public static final int PARTIAL_WAKE_LOCK = 1;
+
+	public class WakeLock {
+		private int myCount;
+
+		WakeLock() {
+		}
+
+		public synchronized void acquire() {
+			++myCount;
+		}
+
+		public synchronized void release() {
+			if (myCount == 0) {
+				throw new RuntimeException("WakeLock under-locked");
+			}
+			--myCount;
+		}
+
+		public synchronized boolean isHeld() {
+			return myCount > 0;
+		}
+	}
+
+	public WakeLock newWakeLock(int flags, String tag) {
+		return new WakeLock();
+	}
+
+	public boolean isScreenOn() {
+		return true;
+	}
+}
@@ -0,0 +1,14 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+public class RemoteException extends Exception {
+	public RemoteException() {
+	}
+
+	public RemoteException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,18 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.os;
+
+public final class SystemClock {
+	private SystemClock() {
+	}
+
+	public static long elapsedRealtime() {
+		return System.nanoTime() / 1000000;
+	}
+
+	public static long uptimeMillis() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * This code is in the public domain.
+ */
+
+package android.util;
+
+// messages go to the standard error stream
+public final class Log {
+	private Log() {
+	}
+
+	private static int println(String level, String tag, String msg) {
+		System.err.println(level + "/" + tag + ": " + msg);
+		return 0;
+	}
+
+	public static int d(String tag, String msg) {
+		return println("D", tag, msg);
+	}
+
+	public static int i(String tag, String msg) {
+		return println("I", tag, msg);
+	}
+
+	public static int w(String tag, String msg) {
+		return println("W", tag, msg);
+	}
+
+	public static int e(String tag, String msg) {
+		return println("E", tag, msg);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		final int result = println("E", tag, msg);
+		tr.printStackTrace();
+		return result;
+	}
+}
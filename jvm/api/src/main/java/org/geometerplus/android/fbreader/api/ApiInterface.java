@@ -0,0 +1,151 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.List;
+import java.util.Map;
+
+import android.os.*;
+
+/*
+ * What aidl generates from ApiInterface.aidl. A local service is called
+ * directly; a binder of another "process" gets a proxy that marshals
+ * every call through Parcel, as on the device.
+ */
+public interface ApiInterface extends IInterface {
+	public static abstract class Stub extends Binder implements ApiInterface {
+		private static final String DESCRIPTOR = "org.geometerplus.android.fbreader.api.ApiInterface";
+
+		static final int TRANSACTION_request = IBinder.FIRST_CALL_TRANSACTION + 0;
+		static final int TRANSACTION_requestList = IBinder.FIRST_CALL_TRANSACTION + 1;
+		static final int TRANSACTION_requestMap = IBinder.FIRST_CALL_TRANSACTION + 2;
+
+		public Stub() {
+			attachInterface(this, DESCRIPTOR);
+		}
+
+		public static ApiInterface asInterface(IBinder obj) {
+			if (obj == null) {
+				return null;
+			}
+			final IInterface iin = obj.queryLocalInterface(DESCRIPTOR);
+			if (iin instanceof ApiInterface) {
+				return (ApiInterface)iin;
+			}
+			return new Proxy(obj);
+		}
+
+		public IBinder asBinder() {
+			return this;
+		}
+
+		@Override
+		protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+			switch (code) {
+				case TRANSACTION_request:
+				{
+					data.enforceInterface(DESCRIPTOR);
+					final int method = data.readInt();
+					final ApiObject[] parameters = data.createTypedArray(ApiObject.CREATOR);
+					final ApiObject result = request(method, parameters);
+					reply.writeNoException();
+					if (result != null) {
+						reply.writeInt(1);
+						result.writeToParcel(reply, Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+					} else {
+						reply.writeInt(0);
+					}
+					return true;
+				}
+				case TRANSACTION_requestList:
+				{
+					data.enforceInterface(DESCRIPTOR);
+					final int method = data.readInt();
+					final ApiObject[] parameters = data.createTypedArray(ApiObject.CREATOR);
+					final List<ApiObject> result = requestList(method, parameters);
+					reply.writeNoException();
+					reply.writeTypedList(result);
+					return true;
+				}
+				case TRANSACTION_requestMap:
+				{
+					data.enforceInterface(DESCRIPTOR);
+					final int method = data.readInt();
+					final ApiObject[] parameters = data.createTypedArray(ApiObject.CREATOR);
+					final Map result = requestMap(method, parameters);
+					reply.writeNoException();
+					reply.writeMap(result);
+					return true;
+				}
+				default:
+					return super.onTransact(code, data, reply, flags);
+			}
+		}
+
+		private static class Proxy implements ApiInterface {
+			private final IBinder myRemote;
+
+			Proxy(IBinder remote) {
+				myRemote = remote;
+			}
+
+			public IBinder asBinder() {
+				return myRemote;
+			}
+
+			public ApiObject request(int method, ApiObject[] parameters) throws RemoteException {
+				final Parcel data = Parcel.obtain();
+				final Parcel reply = Parcel.obtain();
+				try {
+					data.writeInterfaceToken(DESCRIPTOR);
+					data.writeInt(method);
+					data.writeTypedArray(parameters, 0);
+					myRemote.transact(TRANSACTION_request, data, reply, 0);
+					reply.readException();
+					return reply.readInt() != 0 ? ApiObject.CREATOR.createFromParcel(reply) : null;
+				} finally {
+					reply.recycle();
+					data.recycle();
+				}
+			}
+
+			public List<ApiObject> requestList(int method, ApiObject[] parameters) throws RemoteException {
+				final Parcel data = Parcel.obtain();
+				final Parcel reply = Parcel.obtain();
+				try {
+					data.writeInterfaceToken(DESCRIPTOR);
+					data.writeInt(method);
+					data.writeTypedArray(parameters, 0);
+					myRemote.transact(TRANSACTION_requestList, data, reply, 0);
+					reply.readException();
+					return reply.createTypedArrayList(ApiObject.CREATOR);
+				} finally {
+					reply.recycle();
+					data.recycle();
+				}
+			}
+
+			public Map requestMap(int method, ApiObject[] parameters) throws RemoteException {
+				final Parcel data = Parcel.obtain();
+				final Parcel reply = Parcel.obtain();
+				try {
+					data.writeInterfaceToken(DESCRIPTOR);
+					data.writeInt(method);
+					data.writeTypedArray(parameters, 0);
+					myRemote.transact(TRANSACTION_requestMap, data, reply, 0);
+					reply.readException();
+					return reply.readHashMap(getClass().getClassLoader());
+				} finally {
+					reply.recycle();
+					data.recycle();
+				}
+			}
+		}
+	}
+
+	ApiObject request(int method, ApiObject[] parameters) throws RemoteException;
+	List<ApiObject> requestList(int method, ApiObject[] parameters) throws RemoteException;
+	Map requestMap(int method, ApiObject[] parameters) throws RemoteException;
+}
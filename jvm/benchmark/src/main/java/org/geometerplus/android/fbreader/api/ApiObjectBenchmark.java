@@ -0,0 +1,71 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import android.os.Parcel;
+
+/*
+ * Writes an object of each ApiObject.Type to a parcel and reads it back,
+ * as the binder does for a request parameter or a result.
+ * Arrays have Payloads.ARRAY_SIZE elements, see ListPayloadBenchmark for
+ * larger ones.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ApiObjectBenchmark {
+	@Param({
+		"ERROR", "VOID", "INT", "STRING", "BOOLEAN", "DATE", "LONG",
+		"INT_ARRAY", "STRING_ARRAY", "TEXT_POSITION"
+	})
+	public String type;
+
+	private ApiObject myObject;
+	private Parcel myParcel;
+
+	@Setup
+	public void setUp() throws NoSuchFieldException {
+		// a type added to the wire format must be benchmarked too
+		final List<String> benchmarked =
+			Arrays.asList(ApiObjectBenchmark.class.getField("type").getAnnotation(Param.class).value());
+		for (Field field : ApiObject.Type.class.getFields()) {
+			if (!benchmarked.contains(field.getName())) {
+				throw new IllegalStateException("ApiObject.Type." + field.getName() + " is not benchmarked");
+			}
+		}
+		myObject = Payloads.object(type);
+		myParcel = Parcel.obtain();
+	}
+
+	@TearDown
+	public void tearDown() {
+		myParcel.recycle();
+	}
+
+	@Benchmark
+	public int write() {
+		myParcel.setDataPosition(0);
+		myObject.writeToParcel(myParcel, 0);
+		return myParcel.dataPosition();
+	}
+
+	@Benchmark
+	public ApiObject roundTrip() {
+		myParcel.setDataPosition(0);
+		myObject.writeToParcel(myParcel, 0);
+		myParcel.setDataPosition(0);
+		return ApiObject.CREATOR.createFromParcel(myParcel);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Single-value requests through the client: parameter envelopes, the
+ * proxy and the unwrap helper of each result type. Page values are not
+ * cached, the service sends no events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientBenchmark {
+	private ApiClientImplementation myClient;
+	private final TextPosition myPosition = new TextPosition(100, 5, 0);
+
+	@Setup
+	public void setUp() {
+		myClient = PayloadService.connect(new PayloadService(Payloads.ARRAY_SIZE));
+	}
+
+	@TearDown
+	public void tearDown() {
+		myClient.disconnect();
+	}
+
+	// requestString
+	@Benchmark
+	public String getBookTitle() throws ApiException {
+		return myClient.getBookTitle();
+	}
+
+	// an int parameter, requestString
+	@Benchmark
+	public String getParagraphText() throws ApiException {
+		return myClient.getParagraphText(100);
+	}
+
+	// requestInt
+	@Benchmark
+	public int getParagraphElementsCount() throws ApiException {
+		return myClient.getParagraphElementsCount(100);
+	}
+
+	// requestBoolean
+	@Benchmark
+	public boolean isPageEndOfSection() throws ApiException {
+		return myClient.isPageEndOfSection();
+	}
+
+	// requestDate
+	@Benchmark
+	public Date getBookLastTurningTime() throws ApiException {
+		return myClient.getBookLastTurningTime();
+	}
+
+	// requestTextPosition
+	@Benchmark
+	public TextPosition getPageStart() throws ApiException {
+		return myClient.getPageStart();
+	}
+
+	// a TextPosition parameter, a void result
+	@Benchmark
+	public void setPageStart() throws ApiException {
+		myClient.setPageStart(myPosition);
+	}
+}
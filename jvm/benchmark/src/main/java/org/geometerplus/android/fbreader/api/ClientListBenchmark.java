@@ -0,0 +1,68 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * List and array requests through the client: the proxy and the unwrap
+ * helpers for results of the given number of elements.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientListBenchmark {
+	@Param({ "10", "100", "1000", "10000" })
+	public int size;
+
+	private ApiClientImplementation myClient;
+
+	@Setup
+	public void setUp() {
+		myClient = PayloadService.connect(new PayloadService(size));
+	}
+
+	@TearDown
+	public void tearDown() {
+		myClient.disconnect();
+	}
+
+	// requestStringList
+	@Benchmark
+	public List<String> getParagraphWords() throws ApiException {
+		return myClient.getParagraphWords(100);
+	}
+
+	// requestIntegerList
+	@Benchmark
+	public List<Integer> getParagraphWordIndices() throws ApiException {
+		return myClient.getParagraphWordIndices(100);
+	}
+
+	// requestStringArray
+	@Benchmark
+	public String[] getParagraphWordsArray() throws ApiException {
+		return myClient.getParagraphWordsArray(100);
+	}
+
+	// requestIntArray
+	@Benchmark
+	public int[] getParagraphWordIndicesArray() throws ApiException {
+		return myClient.getParagraphWordIndicesArray(100);
+	}
+
+	// index and text pairs, size paragraphs
+	@Benchmark
+	public SortedMap<Integer,String> getParagraphTexts() throws ApiException {
+		return myClient.getParagraphTexts(0, size);
+	}
+}
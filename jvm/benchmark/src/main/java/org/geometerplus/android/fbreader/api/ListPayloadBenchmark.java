@@ -0,0 +1,60 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import android.os.Parcel;
+
+/*
+ * Writes the reply of a list request to a parcel and reads it back, as
+ * the aidl stub and proxy do for requestList(). INT_ARRAY and STRING_ARRAY
+ * are the one-object replies of the array versions, sent the same way.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListPayloadBenchmark {
+	@Param({ "INT_LIST", "STRING_LIST", "PARAGRAPH_TEXTS", "INT_ARRAY", "STRING_ARRAY" })
+	public String payload;
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int size;
+
+	private List<ApiObject> myList;
+	private Parcel myParcel;
+
+	@Setup
+	public void setUp() {
+		myList = Payloads.list(payload, size);
+		myParcel = Parcel.obtain();
+	}
+
+	@TearDown
+	public void tearDown() {
+		myParcel.recycle();
+	}
+
+	@Benchmark
+	public int write() {
+		myParcel.setDataPosition(0);
+		myParcel.writeTypedList(myList);
+		return myParcel.dataPosition();
+	}
+
+	@Benchmark
+	public List<ApiObject> roundTrip() {
+		myParcel.setDataPosition(0);
+		myParcel.writeTypedList(myList);
+		myParcel.setDataPosition(0);
+		return myParcel.createTypedArrayList(ApiObject.CREATOR);
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the benchmarks selected by the JMH command line options (all by
+ * default) with the GC profiler, so ops/s are reported together with
+ * the allocation rate: gc.alloc.rate in MB/s and gc.alloc.rate.norm
+ * in bytes per operation.
+ */
+public final class MarshallingBenchmarks {
+	private MarshallingBenchmarks() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(
+			new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()
+		).run();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.*;
+
+import android.content.ComponentName;
+import android.os.*;
+
+/*
+ * FBReader API service in another "process": the client gets a binder
+ * without a local interface, so each call goes through the aidl proxy and
+ * Parcel both ways, as on the device. Serves fixed payloads, the lists
+ * and arrays have the given number of elements.
+ */
+final class PayloadService extends ApiInterface.Stub {
+	private static final class RemoteBinder implements IBinder {
+		private final Binder myBinder;
+
+		RemoteBinder(Binder binder) {
+			myBinder = binder;
+		}
+
+		public IInterface queryLocalInterface(String descriptor) {
+			return null;
+		}
+
+		public boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+			return myBinder.transact(code, data, reply, flags);
+		}
+
+		public void linkToDeath(DeathRecipient recipient, int flags) {
+		}
+
+		public boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+			return true;
+		}
+	}
+
+	static ApiClientImplementation connect(PayloadService service) {
+		final ApiClientImplementation client = new ApiClientImplementation(
+			new FakeApiInterface.FakeContext(null), null, ApiClientImplementation.FBREADER_PREFIX
+		);
+		client.onServiceConnected(
+			new ComponentName("org.geometerplus.zlibrary.ui.android", "ApiService"),
+			new RemoteBinder(service)
+		);
+		return client;
+	}
+
+	private final ApiObject myTitle = ApiObject.envelope("Alice's Adventures in Wonderland");
+	private final ApiObject myText = Payloads.object("STRING");
+	private final ApiObject myDate = Payloads.object("DATE");
+	private final ApiObject myPosition = Payloads.object("TEXT_POSITION");
+	private final ApiObject mySize;
+	private final ApiObject myWordsArray;
+	private final ApiObject myIndicesArray;
+	private final List<ApiObject> myWords;
+	private final List<ApiObject> myIndices;
+	private final List<ApiObject> myParagraphTexts;
+
+	PayloadService(int size) {
+		mySize = ApiObject.envelope(size);
+		myWordsArray = Payloads.list("STRING_ARRAY", size).get(0);
+		myIndicesArray = Payloads.list("INT_ARRAY", size).get(0);
+		myWords = Payloads.list("STRING_LIST", size);
+		myIndices = Payloads.list("INT_LIST", size);
+		myParagraphTexts = Payloads.list("PARAGRAPH_TEXTS", size);
+	}
+
+	public ApiObject request(int method, ApiObject[] parameters) {
+		switch (method) {
+			case ApiMethods.GET_BOOK_TITLE:
+				return myTitle;
+			case ApiMethods.GET_BOOK_LAST_TURNING_TIME:
+				return myDate;
+			case ApiMethods.GET_PARAGRAPH_TEXT:
+				return myText;
+			case ApiMethods.GET_PARAGRAPH_ELEMENTS_COUNT:
+				return mySize;
+			case ApiMethods.GET_PARAGRAPH_WORDS_ARRAY:
+				return myWordsArray;
+			case ApiMethods.GET_PARAGRAPH_WORD_INDICES_ARRAY:
+				return myIndicesArray;
+			case ApiMethods.GET_PAGE_START:
+				return myPosition;
+			case ApiMethods.IS_PAGE_END_OF_SECTION:
+				return ApiObject.envelope(false);
+			case ApiMethods.SET_PAGE_START:
+				return ApiObject.Void.Instance;
+			default:
+				return new ApiObject.Error("Unsupported method " + method);
+		}
+	}
+
+	public List<ApiObject> requestList(int method, ApiObject[] parameters) {
+		switch (method) {
+			case ApiMethods.GET_PARAGRAPH_WORDS:
+				return myWords;
+			case ApiMethods.GET_PARAGRAPH_WORD_INDICES:
+				return myIndices;
+			case ApiMethods.GET_PARAGRAPH_TEXTS:
+				return myParagraphTexts;
+			default:
+				return Collections.<ApiObject>singletonList(new ApiObject.Error("Unsupported method " + method));
+		}
+	}
+
+	public Map requestMap(int method, ApiObject[] parameters) {
+		return Collections.emptyMap();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.*;
+
+/*
+ * Payloads of the benchmarks: an object of each ApiObject.Type and
+ * the replies of list requests, built from words of a typical length.
+ */
+final class Payloads {
+	// elements of the arrays in the per-type benchmark
+	static final int ARRAY_SIZE = 16;
+
+	private static final String[] WORDS = {
+		"the", "reader", "turned", "a", "page", "and", "listened", "to",
+		"voice", "reading", "every", "paragraph", "of", "book", "aloud"
+	};
+
+	private Payloads() {
+	}
+
+	static String[] words(int count) {
+		final String[] words = new String[count];
+		for (int i = 0; i < count; ++i) {
+			words[i] = WORDS[i % WORDS.length];
+		}
+		return words;
+	}
+
+	static int[] indices(int count) {
+		final int[] indices = new int[count];
+		for (int i = 0; i < count; ++i) {
+			indices[i] = 2 * i;
+		}
+		return indices;
+	}
+
+	static String paragraph(int wordsNumber) {
+		final StringBuilder builder = new StringBuilder();
+		for (String word : words(wordsNumber)) {
+			if (builder.length() > 0) {
+				builder.append(' ');
+			}
+			builder.append(word);
+		}
+		return builder.append('.').toString();
+	}
+
+	// type is the name of an ApiObject.Type constant
+	static ApiObject object(String type) {
+		if ("ERROR".equals(type)) {
+			return new ApiObject.Error("Unsupported method 0");
+		} else if ("VOID".equals(type)) {
+			return ApiObject.Void.Instance;
+		} else if ("INT".equals(type)) {
+			// a paragraph index, served by the flyweights
+			return ApiObject.envelope(100);
+		} else if ("STRING".equals(type)) {
+			return ApiObject.envelope(paragraph(40));
+		} else if ("BOOLEAN".equals(type)) {
+			return ApiObject.envelope(true);
+		} else if ("DATE".equals(type)) {
+			return ApiObject.envelope(new Date(1300000000000L));
+		} else if ("LONG".equals(type)) {
+			return ApiObject.envelope(1300000000000L);
+		} else if ("INT_ARRAY".equals(type)) {
+			return ApiObject.envelope(indices(ARRAY_SIZE));
+		} else if ("STRING_ARRAY".equals(type)) {
+			return ApiObject.envelope(words(ARRAY_SIZE));
+		} else if ("TEXT_POSITION".equals(type)) {
+			return new TextPosition(100, 5, 0);
+		}
+		throw new IllegalArgumentException("Unknown type " + type);
+	}
+
+	/*
+	 * kind is INT_LIST, STRING_LIST or PARAGRAPH_TEXTS for the replies of
+	 * list requests, INT_ARRAY or STRING_ARRAY for the one-object replies
+	 * of their array versions; size is the number of elements
+	 */
+	static List<ApiObject> list(String kind, int size) {
+		if ("INT_LIST".equals(kind)) {
+			final ArrayList<Integer> values = new ArrayList<Integer>(size);
+			for (int index : indices(size)) {
+				values.add(index);
+			}
+			return ApiObject.envelopeIntegerList(values);
+		} else if ("STRING_LIST".equals(kind)) {
+			return ApiObject.envelopeStringList(Arrays.asList(words(size)));
+		} else if ("PARAGRAPH_TEXTS".equals(kind)) {
+			final TreeMap<Integer,String> texts = new TreeMap<Integer,String>();
+			final String text = paragraph(40);
+			for (int i = 0; i < size; ++i) {
+				texts.put(i, text);
+			}
+			return ApiObject.envelopeParagraphTexts(texts);
+		} else if ("INT_ARRAY".equals(kind)) {
+			return Collections.singletonList(ApiObject.envelope(indices(size)));
+		} else if ("STRING_ARRAY".equals(kind)) {
+			return Collections.singletonList(ApiObject.envelope(words(size)));
+		}
+		throw new IllegalArgumentException("Unknown payload " + kind);
+	}
+}
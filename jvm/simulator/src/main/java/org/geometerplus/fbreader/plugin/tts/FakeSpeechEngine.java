@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.*;
+
+/*
+ * Speech engine that "speaks" an utterance for its length divided by
+ * the given number of characters per second (times the speech rate) on
+ * its own thread and reports the completion. Flushed and stopped
+ * utterances are not reported, as with TextToSpeech.
+ * Records the gaps: the time from a completion that left the queue empty
+ * to the start of the next utterance. A stop, or a flush that drops
+ * queued utterances, is a restart and not a gap.
+ */
+final class FakeSpeechEngine implements SpeechEngine, Runnable {
+	private static final class Utterance {
+		final String Text;
+		final String Id;
+
+		Utterance(String text, String id) {
+			Text = text;
+			Id = id;
+		}
+	}
+
+	private final int myCharsPerSecond;
+	private final Thread myThread;
+	private volatile Listener myListener;
+	// the fields below are guarded by this
+	private final LinkedList<Utterance> myQueue = new LinkedList<Utterance>();
+	private Utterance myCurrent;
+	private long myCurrentEnd;
+	private float myRate = 1;
+	// nanoTime of the completion that left the queue empty, 0 if none
+	private long myIdleSince;
+	private final ArrayList<Long> myGaps = new ArrayList<Long>();
+	private int mySpokenCount;
+	private long mySpokenChars;
+	private boolean myIsShutdown;
+
+	FakeSpeechEngine(int charsPerSecond) {
+		myCharsPerSecond = charsPerSecond;
+		myThread = new Thread(this, "Fake speech engine");
+		myThread.setDaemon(true);
+		myThread.start();
+	}
+
+	public void setListener(Listener listener) {
+		myListener = listener;
+	}
+
+	public boolean isLanguageAvailable(Locale locale) {
+		return true;
+	}
+
+	public void setLanguage(Locale locale) {
+	}
+
+	public synchronized void setSpeechRate(float rate) {
+		myRate = rate;
+	}
+
+	public synchronized boolean speak(String text, boolean flush, String utteranceId) {
+		if (flush) {
+			dropAll();
+		}
+		myQueue.add(new Utterance(text, utteranceId));
+		notifyAll();
+		return true;
+	}
+
+	// the reading engine does not synthesize to files without external storage
+	public boolean synthesizeToFile(String text, String utteranceId, String fileName) {
+		return false;
+	}
+
+	public synchronized boolean isSpeaking() {
+		return myCurrent != null || !myQueue.isEmpty();
+	}
+
+	public synchronized void stop() {
+		dropAll();
+		myIdleSince = 0;
+	}
+
+	public synchronized void shutdown() {
+		dropAll();
+		myIsShutdown = true;
+		notifyAll();
+	}
+
+	private void dropAll() {
+		if (myCurrent != null || !myQueue.isEmpty()) {
+			myIdleSince = 0;
+		}
+		myCurrent = null;
+		myQueue.clear();
+		notifyAll();
+	}
+
+	// gaps in milliseconds
+	synchronized List<Double> getGaps() {
+		final ArrayList<Double> gaps = new ArrayList<Double>(myGaps.size());
+		for (long gap : myGaps) {
+			gaps.add(gap / 1e6);
+		}
+		return gaps;
+	}
+
+	synchronized int getSpokenCount() {
+		return mySpokenCount;
+	}
+
+	synchronized long getSpokenChars() {
+		return mySpokenChars;
+	}
+
+	public void run() {
+		while (true) {
+			final String completedId;
+			synchronized (this) {
+				try {
+					while (true) {
+						if (myIsShutdown) {
+							return;
+						}
+						final long now = System.nanoTime();
+						if (myCurrent == null) {
+							if (myQueue.isEmpty()) {
+								wait();
+								continue;
+							}
+							myCurrent = myQueue.removeFirst();
+							if (myIdleSince != 0) {
+								myGaps.add(now - myIdleSince);
+								myIdleSince = 0;
+							}
+							myCurrentEnd = now +
+								(long)(myCurrent.Text.length() * 1e9 / (myCharsPerSecond * myRate));
+						}
+						final long left = myCurrentEnd - now;
+						if (left > 0) {
+							wait(left / 1000000, (int)(left % 1000000));
+							continue;
+						}
+						break;
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				++mySpokenCount;
+				mySpokenChars += myCurrent.Text.length();
+				completedId = myCurrent.Id;
+				myCurrent = null;
+				if (myQueue.isEmpty()) {
+					myIdleSince = System.nanoTime();
+				}
+			}
+			final Listener listener = myListener;
+			if (listener != null) {
+				listener.onUtteranceCompleted(completedId);
+			}
+		}
+	}
+}
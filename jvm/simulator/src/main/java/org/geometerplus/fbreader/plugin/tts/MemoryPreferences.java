@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.*;
+
+import android.content.SharedPreferences;
+
+// preferences kept in memory for the simulator run
+final class MemoryPreferences implements SharedPreferences {
+	private final HashMap<String,Object> myValues = new HashMap<String,Object>();
+
+	public synchronized Map<String,?> getAll() {
+		return new HashMap<String,Object>(myValues);
+	}
+
+	private synchronized Object get(String key) {
+		return myValues.get(key);
+	}
+
+	public String getString(String key, String defValue) {
+		final Object value = get(key);
+		return value instanceof String ? (String)value : defValue;
+	}
+
+	public int getInt(String key, int defValue) {
+		final Object value = get(key);
+		return value instanceof Integer ? (Integer)value : defValue;
+	}
+
+	public long getLong(String key, long defValue) {
+		final Object value = get(key);
+		return value instanceof Long ? (Long)value : defValue;
+	}
+
+	public boolean getBoolean(String key, boolean defValue) {
+		final Object value = get(key);
+		return value instanceof Boolean ? (Boolean)value : defValue;
+	}
+
+	public synchronized boolean contains(String key) {
+		return myValues.containsKey(key);
+	}
+
+	public Editor edit() {
+		return new Editor() {
+			private final HashMap<String,Object> myChanges = new HashMap<String,Object>();
+			private boolean myClear;
+
+			public Editor putString(String key, String value) {
+				myChanges.put(key, value);
+				return this;
+			}
+
+			public Editor putInt(String key, int value) {
+				myChanges.put(key, value);
+				return this;
+			}
+
+			public Editor putLong(String key, long value) {
+				myChanges.put(key, value);
+				return this;
+			}
+
+			public Editor putBoolean(String key, boolean value) {
+				myChanges.put(key, value);
+				return this;
+			}
+
+			// a null value removes the key on commit
+			public Editor remove(String key) {
+				myChanges.put(key, null);
+				return this;
+			}
+
+			public Editor clear() {
+				myClear = true;
+				return this;
+			}
+
+			public boolean commit() {
+				synchronized (MemoryPreferences.this) {
+					if (myClear) {
+						myValues.clear();
+					}
+					for (Map.Entry<String,Object> entry : myChanges.entrySet()) {
+						if (entry.getValue() != null) {
+							myValues.put(entry.getKey(), entry.getValue());
+						} else {
+							myValues.remove(entry.getKey());
+						}
+					}
+				}
+				return true;
+			}
+		};
+	}
+}
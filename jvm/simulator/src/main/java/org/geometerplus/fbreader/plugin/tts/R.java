@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+/*
+ * Stand-in for the class aapt generates from res/, with the resources
+ * used by the classes the simulator runs.
+ */
+public final class R {
+	public static final class string {
+		public static final int connection_lost = 0x7f050001;
+		public static final int initialization_error = 0x7f050002;
+		public static final int language_is_not_set = 0x7f050003;
+		public static final int no_data_for_language = 0x7f050004;
+	}
+}
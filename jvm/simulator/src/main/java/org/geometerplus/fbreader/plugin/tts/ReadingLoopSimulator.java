@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Runs the reading engine off the device: FakeApiInterface serves the book
+ * in process with the given latency and jitter per transaction, the fake
+ * speech engine speaks at the given speed, the engine thread is a plain
+ * Java thread. Reads the book to the end, optionally skipping paragraphs
+ * on a timer, and prints the gaps between utterances, the FBReader API
+ * transactions, the memory allocated by the engine and view update
+ * threads and the engine's own statistics.
+ *
+ * Arguments are key=value pairs:
+ *   book=<file>          UTF-8 text, one line per paragraph
+ *   paragraphs=<n>       size of the generated book if no file is given (300)
+ *   cps=<n>              speech speed, characters per second (5000)
+ *   latency=<us>         time of each transaction (1000)
+ *   jitter=<us>          uniformly distributed extra time (2000)
+ *   queueLength=<n>      paragraphs queued in the speech engine (3)
+ *   prefetchDepth=<n>    paragraphs read ahead by the prefetcher
+ *   splitSentences=<b>   one utterance per sentence (false)
+ *   skipInterval=<ms>    time between skips, every 4th goes back; 0 for none (0)
+ *   timeout=<s>          the run is aborted after this time (600)
+ */
+public final class ReadingLoopSimulator implements ReadingEngine.Listener {
+	private static final String[] WORDS = {
+		"the", "book", "reader", "was", "quiet", "and", "a", "long", "voice",
+		"read", "every", "page", "of", "it", "to", "night", "when", "river",
+		"light", "stone", "garden", "before", "morning", "nobody", "listened"
+	};
+
+	private static final String ENGINE_THREAD = "Reading engine";
+
+	private final CountDownLatch myFinished = new CountDownLatch(1);
+	private volatile boolean myWasActive;
+	private volatile String myFatalMessage;
+
+	public void onBookOpened(String title) {
+		System.out.println("book opened: " + title);
+	}
+
+	public void onStateChanged(boolean active, boolean canGoBackward, boolean canGoForward) {
+		if (active) {
+			myWasActive = true;
+		} else if (myWasActive && !canGoForward) {
+			myFinished.countDown();
+		}
+	}
+
+	public void onMessage(CharSequence text, boolean fatal) {
+		System.out.println((fatal ? "fatal: " : "message: ") + text);
+		if (fatal) {
+			myFatalMessage = text.toString();
+			myFinished.countDown();
+		}
+	}
+
+	private static String[] readBook(File file) throws IOException {
+		final ArrayList<String> paragraphs = new ArrayList<String>();
+		final BufferedReader reader =
+			new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				paragraphs.add(line.trim());
+			}
+		} finally {
+			reader.close();
+		}
+		return paragraphs.toArray(new String[paragraphs.size()]);
+	}
+
+	// one paragraph in twenty is empty, as a title separator would be
+	private static String[] generateBook(int paragraphsNumber) {
+		final Random random = new Random(0);
+		final String[] paragraphs = new String[paragraphsNumber];
+		for (int i = 0; i < paragraphsNumber; ++i) {
+			if (random.nextInt(20) == 0) {
+				paragraphs[i] = "";
+				continue;
+			}
+			final StringBuilder builder = new StringBuilder();
+			for (int sentences = 1 + random.nextInt(5); sentences > 0; --sentences) {
+				final int start = builder.length();
+				for (int words = 4 + random.nextInt(16); words > 0; --words) {
+					builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+				}
+				builder.setCharAt(start, Character.toUpperCase(builder.charAt(start)));
+				builder.setCharAt(builder.length() - 1, '.');
+				builder.append(' ');
+			}
+			paragraphs[i] = builder.toString().trim();
+		}
+		return paragraphs;
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static double percentile(List<Double> sorted, int percent) {
+		final int rank = (sorted.size() * percent + 99) / 100;
+		return sorted.get(Math.max(rank, 1) - 1);
+	}
+
+	private static String distribution(List<Double> values) {
+		if (values.isEmpty()) {
+			return "none";
+		}
+		final ArrayList<Double> sorted = new ArrayList<Double>(values);
+		Collections.sort(sorted);
+		double sum = 0;
+		for (double value : sorted) {
+			sum += value;
+		}
+		return String.format(
+			Locale.US,
+			"count %d, avg %.2f, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f",
+			sorted.size(), sum / sorted.size(),
+			percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+			sorted.get(sorted.size() - 1)
+		);
+	}
+
+	// bytes allocated by the live threads of the given name, -1 if not supported
+	private static long allocatedBytes(String threadName) {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		long bytes = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (threadName.equals(thread.getName())) {
+				bytes += ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(thread.getId());
+			}
+		}
+		return bytes;
+	}
+
+	private static String perUtterance(long bytes, int utterances) {
+		return bytes < 0 ? "not supported" : bytes / Math.max(utterances, 1) + " bytes per utterance";
+	}
+
+	private static void usage(String message) {
+		System.err.println(message);
+		System.err.println(
+			"usage: ReadingLoopSimulator [book=<file>] [paragraphs=<n>] [cps=<n>] " +
+			"[latency=<us>] [jitter=<us>] [queueLength=<n>] [prefetchDepth=<n>] " +
+			"[splitSentences=<b>] [skipInterval=<ms>] [timeout=<s>]"
+		);
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws Exception {
+		final HashMap<String,String> options = new HashMap<String,String>();
+		for (String arg : args) {
+			final int index = arg.indexOf('=');
+			if (index <= 0) {
+				usage("bad argument: " + arg);
+			}
+			options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+		final String bookName = options.remove("book");
+		final int paragraphsNumber = intOption(options, "paragraphs", 300);
+		final int charsPerSecond = intOption(options, "cps", 5000);
+		final long latency = intOption(options, "latency", 1000);
+		final long jitter = intOption(options, "jitter", 2000);
+		final int queueLength = intOption(options, "queueLength", 3);
+		final int prefetchDepth = intOption(options, "prefetchDepth", ParagraphPrefetcher.DEFAULT_DEPTH);
+		final String splitSentences = options.remove("splitSentences");
+		final long skipInterval = intOption(options, "skipInterval", 0);
+		final long timeout = intOption(options, "timeout", 600);
+		if (!options.isEmpty()) {
+			usage("unknown arguments: " + options.keySet());
+		}
+
+		final String[] paragraphs = bookName != null
+			? readBook(new File(bookName)) : generateBook(paragraphsNumber);
+		int nonEmptyCount = 0;
+		for (String paragraph : paragraphs) {
+			if (paragraph.length() > 0) {
+				++nonEmptyCount;
+			}
+		}
+		if (nonEmptyCount == 0) {
+			usage("the book is empty");
+		}
+
+		final boolean succeeded;
+		final File cacheDir = File.createTempFile("tts-simulator", "");
+		cacheDir.delete();
+		cacheDir.mkdirs();
+		try {
+			final SimulatorContext context = new SimulatorContext(cacheDir);
+			final SharedPreferences preferences =
+				context.getSharedPreferences("FBReaderTTS", Context.MODE_PRIVATE);
+			preferences.edit()
+				.putInt("queueLength", queueLength)
+				.putInt("prefetchDepth", prefetchDepth)
+				.putBoolean("splitSentences", Boolean.parseBoolean(splitSentences))
+				.commit();
+
+			final FakeApiInterface service = new FakeApiInterface(
+				bookName != null ? new File(bookName).getName() : FakeApiInterface.TITLE,
+				paragraphs, latency, jitter
+			);
+			final ApiClientImplementation api =
+				new ApiClientImplementation(context, null, ApiClientImplementation.FBREADER_PREFIX);
+			api.onServiceConnected(new ComponentName("org.geometerplus.zlibrary.ui.android", "ApiService"), service);
+
+			final ReadingLoopSimulator simulator = new ReadingLoopSimulator();
+			final FakeSpeechEngine speech = new FakeSpeechEngine(charsPerSecond);
+			final ReadingEngine engine = new ReadingEngine(
+				context, api, preferences, new ThreadEngineQueue(ENGINE_THREAD), simulator
+			);
+			final long startTime = System.nanoTime();
+			engine.initialize(speech);
+
+			// a skip stops the playback, as the control panel button does; the user presses play again
+			final Timer skipTimer = new Timer("Skip driver", true);
+			if (skipInterval > 0) {
+				skipTimer.schedule(new TimerTask() {
+					private int myCount;
+
+					public void run() {
+						if (++myCount % 4 == 0) {
+							engine.previous();
+						} else {
+							engine.next();
+						}
+						engine.play();
+					}
+				}, skipInterval, skipInterval);
+			}
+
+			final boolean finished = simulator.myFinished.await(timeout, TimeUnit.SECONDS);
+			final long elapsed = (System.nanoTime() - startTime) / 1000000;
+			// the threads are alive until the shutdown, warm-up is included
+			final long engineBytes = allocatedBytes(ENGINE_THREAD);
+			final long viewBytes = allocatedBytes("FBReader API view");
+			skipTimer.cancel();
+			engine.shutdown();
+			// shutdown waits for the view updates up to a second
+			Thread.sleep(1500);
+
+			final int calls = service.CallCount.get();
+			System.out.println(
+				(finished ? "finished" : "timed out") + " in " + elapsed + " ms" +
+				(simulator.myFatalMessage != null ? " with " + simulator.myFatalMessage : "")
+			);
+			System.out.println(
+				"book: " + paragraphs.length + " paragraphs, " + nonEmptyCount + " non-empty"
+			);
+			System.out.println(
+				"spoken: " + speech.getSpokenCount() + " utterances, " + speech.getSpokenChars() + " characters"
+			);
+			System.out.println("gaps between utterances, ms: " + distribution(speech.getGaps()));
+			System.out.println(String.format(
+				Locale.US, "FBReader transactions: %d, %.2f per non-empty paragraph",
+				calls, (double)calls / nonEmptyCount
+			));
+			System.out.println(
+				"allocated on the engine thread: " + perUtterance(engineBytes, speech.getSpokenCount()) +
+				", on the view update thread: " + perUtterance(viewBytes, speech.getSpokenCount())
+			);
+			System.out.println(engine.getStatistics());
+			System.out.println("client: " + api.getStatistics());
+			succeeded = finished && simulator.myFatalMessage == null;
+		} finally {
+			delete(cacheDir);
+		}
+		// the service and speech threads are daemons, the API client ones are not
+		System.exit(succeeded ? 0 : 1);
+	}
+
+	private static int intOption(Map<String,String> options, String name, int defaultValue) {
+		final String value = options.remove(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			usage("bad " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.PowerManager;
+
+import org.geometerplus.android.fbreader.api.FakeApiInterface;
+
+/*
+ * Context of the simulated service: preferences in memory, caches in
+ * the given directory, no external storage, the screen always on.
+ * Texts are the names of the string resources.
+ */
+final class SimulatorContext extends FakeApiInterface.FakeContext {
+	private final File myCacheDir;
+	private final PowerManager myPowerManager = new PowerManager();
+	private final HashMap<String,SharedPreferences> myPreferences = new HashMap<String,SharedPreferences>();
+
+	SimulatorContext(File cacheDir) {
+		super(null);
+		myCacheDir = cacheDir;
+	}
+
+	@Override
+	public Object getSystemService(String name) {
+		return Context.POWER_SERVICE.equals(name) ? myPowerManager : null;
+	}
+
+	@Override
+	public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+		SharedPreferences preferences = myPreferences.get(name);
+		if (preferences == null) {
+			preferences = new MemoryPreferences();
+			myPreferences.put(name, preferences);
+		}
+		return preferences;
+	}
+
+	@Override
+	public String getPackageName() {
+		return "org.geometerplus.fbreader.plugin.tts";
+	}
+
+	@Override
+	public File getCacheDir() {
+		return myCacheDir;
+	}
+
+	@Override
+	public File getExternalCacheDir() {
+		return null;
+	}
+
+	@Override
+	public CharSequence getText(int resId) {
+		for (Field field : R.string.class.getFields()) {
+			try {
+				if (field.getInt(null) == resId) {
+					return field.getName();
+				}
+			} catch (IllegalAccessException e) {
+			}
+		}
+		return "#" + Integer.toHexString(resId);
+	}
+}
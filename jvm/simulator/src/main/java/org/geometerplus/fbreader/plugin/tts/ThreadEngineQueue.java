@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.*;
+
+/*
+ * EngineQueue on a plain Java thread: messages and runnables are kept in
+ * a list sorted by their due time and handled one by one, as a Looper does.
+ */
+final class ThreadEngineQueue implements EngineQueue, Runnable {
+	private static final class Entry {
+		final int What;
+		final int Arg;
+		final Object Obj;
+		final Runnable Runnable;
+		final long When;
+
+		Entry(int what, int arg, Object obj, Runnable runnable, long when) {
+			What = what;
+			Arg = arg;
+			Obj = obj;
+			Runnable = runnable;
+			When = when;
+		}
+	}
+
+	private final Thread myThread;
+	private final LinkedList<Entry> myEntries = new LinkedList<Entry>();
+	private volatile Callback myCallback;
+	private boolean myIsQuit;
+
+	ThreadEngineQueue(String name) {
+		myThread = new Thread(this, name);
+		myThread.setDaemon(true);
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	public void start(Callback callback) {
+		myCallback = callback;
+		myThread.start();
+	}
+
+	public synchronized void quit() {
+		myIsQuit = true;
+		myEntries.clear();
+		notifyAll();
+	}
+
+	public void run() {
+		while (true) {
+			final Entry entry;
+			synchronized (this) {
+				try {
+					while (true) {
+						if (myIsQuit) {
+							return;
+						}
+						if (myEntries.isEmpty()) {
+							wait();
+							continue;
+						}
+						final long delay = myEntries.getFirst().When - now();
+						if (delay > 0) {
+							wait(delay);
+							continue;
+						}
+						break;
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				entry = myEntries.removeFirst();
+			}
+			if (entry.Runnable != null) {
+				entry.Runnable.run();
+			} else {
+				myCallback.handleMessage(entry.What, entry.Arg, entry.Obj);
+			}
+		}
+	}
+
+	// entries with the same due time are handled in the order they were added
+	private synchronized void add(Entry entry) {
+		if (myIsQuit) {
+			return;
+		}
+		final ListIterator<Entry> it = myEntries.listIterator(myEntries.size());
+		while (it.hasPrevious()) {
+			if (it.previous().When <= entry.When) {
+				it.next();
+				break;
+			}
+		}
+		it.add(entry);
+		notifyAll();
+	}
+
+	public void send(int what, int arg, Object obj) {
+		add(new Entry(what, arg, obj, null, now()));
+	}
+
+	public void sendDelayed(int what, long delay) {
+		add(new Entry(what, 0, null, null, now() + delay));
+	}
+
+	public void sendAtFront(int what) {
+		add(new Entry(what, 0, null, null, Long.MIN_VALUE));
+	}
+
+	public synchronized boolean has(int what) {
+		for (Entry entry : myEntries) {
+			if (entry.Runnable == null && entry.What == what) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized void remove(int what) {
+		for (Iterator<Entry> it = myEntries.iterator(); it.hasNext(); ) {
+			final Entry entry = it.next();
+			if (entry.Runnable == null && entry.What == what) {
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		myEntries.clear();
+	}
+
+	public void post(Runnable runnable) {
+		add(new Entry(0, 0, null, runnable, now()));
+	}
+
+	public void postDelayed(Runnable runnable, long delay) {
+		add(new Entry(0, 0, null, runnable, now() + delay));
+	}
+
+	public synchronized void removeCallbacks(Runnable runnable) {
+		for (Iterator<Entry> it = myEntries.iterator(); it.hasNext(); ) {
+			if (it.next().Runnable == runnable) {
+				it.remove();
+			}
+		}
+	}
+}
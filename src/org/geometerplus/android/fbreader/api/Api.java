@@ -6,6 +6,7 @@ package org.geometerplus.android.fbreader.api;
 
 import java.util.List;
 import java.util.Date;
+import java.util.SortedMap;
 
 public interface Api {
 	// information about fbreader
@@ -44,8 +45,12 @@ public interface Api {
 	int getParagraphsNumber() throws ApiException;
 	int getParagraphElementsCount(int paragraphIndex) throws ApiException;
 	String getParagraphText(int paragraphIndex) throws ApiException;
+	// texts of non-empty paragraphs in [start, start + count), keyed by paragraph index
+	SortedMap<Integer,String> getParagraphTexts(int start, int count) throws ApiException;
 	List<String> getParagraphWords(int paragraphIndex) throws ApiException;
 	List<Integer> getParagraphWordIndices(int paragraphIndex) throws ApiException;
+	String[] getParagraphWordsArray(int paragraphIndex) throws ApiException;
+	int[] getParagraphWordIndicesArray(int paragraphIndex) throws ApiException;
 
 	// page information
 	TextPosition getPageStart() throws ApiException;
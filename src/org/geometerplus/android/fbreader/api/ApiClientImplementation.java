@@ -5,9 +5,14 @@
 package org.geometerplus.android.fbreader.api;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.content.*;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 
 public class ApiClientImplementation implements ServiceConnection, Api, ApiMethods {
 	public static interface ConnectionListener {
@@ -20,27 +25,77 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	static final String ACTION_API_CALLBACK_POSTFIX = ".action.API_CALLBACK";
 	static final String EVENT_TYPE = "event.type";
 
+	/*
+	 * Immutable connection state snapshot. Requests read it once and use
+	 * the interface from the snapshot, so they do not take any lock and
+	 * cannot see the interface disappear between the check and the call.
+	 * The state is null when the client is not bound, BINDING when it is
+	 * bound but the service is not connected yet.
+	 * Binder is the service binder the death recipient is linked to.
+	 */
+	private static final class Connection {
+		final ApiInterface Interface;
+		final IBinder Binder;
+
+		Connection(ApiInterface iface, IBinder binder) {
+			Interface = iface;
+			Binder = binder;
+		}
+	}
+
+	private static final Connection BINDING = new Connection(null, null);
+
 	private final Context myContext;
 	private ConnectionListener myListener;
-	private volatile ApiInterface myInterface;
+	private final AtomicReference<Connection> myConnection = new AtomicReference<Connection>();
 	private final String myPrefix;
+	// false if FBReader does not support array methods, lists are requested then
+	private volatile boolean myArraysSupported = true;
+	// false if FBReader does not support BATCH, sub-requests are sent one by one then
+	private volatile boolean myBatchSupported = true;
+
+	// reconnection after FBReader service death
+	private static final long INITIAL_RECONNECT_DELAY = 100;
+	private static final long MAX_RECONNECT_DELAY = 2000;
+	private static final long RECONNECT_TIMEOUT = 30000;
+	private final Handler myHandler = new Handler(Looper.getMainLooper());
+	// elapsedRealtime() of the service death, 0 if the client is not recovering
+	private volatile long myDeathTime;
+	private long myReconnectDelay;
+	private volatile long myLastRecoveryTime = -1;
+	private volatile int myRecoveryCount;
+	// the view state replayed after reconnection, null if not set by this client
+	private volatile TextPosition myLastPageStart;
+	private volatile TextPosition myLastHighlightingStart;
+	private volatile TextPosition myLastHighlightingEnd;
+
+	private final IBinder.DeathRecipient myDeathRecipient = new IBinder.DeathRecipient() {
+		public void binderDied() {
+			onServiceDied();
+		}
+	};
 
-	private final List<ApiListener> myApiListeners =
-		Collections.synchronizedList(new LinkedList<ApiListener>());
+	private final Runnable myReconnectRunnable = new Runnable() {
+		public void run() {
+			reconnect();
+		}
+	};
+
+	private final StateCache myStateCache = new StateCache();
+	private final ApiStatistics myStatistics = new ApiStatistics();
+
+	private final ListenerRegistry myApiListeners = new ListenerRegistry();
 
 	private final BroadcastReceiver myEventReceiver = new BroadcastReceiver() {
 		@Override
 		public void onReceive(Context context, Intent intent) {
-			if (myInterface == null || myApiListeners.size() == 0) {
+			if (!isConnected()) {
 				return;
 			}
 			final int code = intent.getIntExtra(EVENT_TYPE, -1);
 			if (code != -1) {
-				synchronized (myApiListeners) {
-					for (ApiListener l : myApiListeners) {
-						l.onEvent(code);
-					}
-				}
+				myStateCache.onEvent(code);
+				myApiListeners.dispatch(code);
 			}
 		}
 	};
@@ -52,74 +107,269 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 		connect();
 	}
 
+	// connect() and disconnect() are serialized with each other only, requests never wait for them
 	public synchronized void connect() {
-		if (myInterface == null) {
+		if (myConnection.compareAndSet(null, BINDING)) {
+			myStateCache.reset();
 			myContext.bindService(new Intent(myPrefix + ACTION_API_POSTFIX), this, Context.BIND_AUTO_CREATE);
 			myContext.registerReceiver(myEventReceiver, new IntentFilter(myPrefix + ACTION_API_CALLBACK_POSTFIX));
 		}
 	}
 
 	public synchronized void disconnect() {
-		if (myInterface != null) {
+		myHandler.removeCallbacks(myReconnectRunnable);
+		myDeathTime = 0;
+		final Connection connection = myConnection.getAndSet(null);
+		if (connection != null) {
+			unlinkToDeath(connection);
 			myContext.unregisterReceiver(myEventReceiver);
 			try {
 				myContext.unbindService(this);
 			} catch (IllegalArgumentException e) {
 			}
-			myInterface = null;
 		}
 	}
 
+	public boolean isConnected() {
+		final Connection connection = myConnection.get();
+		return connection != null && connection.Interface != null;
+	}
+
+	// the listener is called on the main thread, it should return quickly
 	public void addListener(ApiListener listener) {
-		myApiListeners.add(listener);
+		myApiListeners.add(listener, null);
+	}
+
+	/*
+	 * The listener is called on the executor; events queued for it
+	 * are coalesced, so it sees each pending event once.
+	 */
+	public void addListener(ApiListener listener, Executor executor) {
+		myApiListeners.add(listener, executor);
 	}
 
 	public void removeListener(ApiListener listener) {
 		myApiListeners.remove(listener);
 	}
 
-	public synchronized void onServiceConnected(ComponentName className, IBinder service) {
-		myInterface = ApiInterface.Stub.asInterface(service);
-		if (myListener != null) {
+	public static final class DispatchStats {
+		public final long DeliveredEvents;
+		public final long CoalescedEvents;
+		// from broadcast receipt to the listener call, in microseconds
+		public final long AverageLatency;
+		public final long MaxLatency;
+		// events queued for executor-backed listeners
+		public final int QueueDepth;
+		public final int MaxQueueDepth;
+
+		DispatchStats(long delivered, long coalesced, long averageLatency, long maxLatency, int queueDepth, int maxQueueDepth) {
+			DeliveredEvents = delivered;
+			CoalescedEvents = coalesced;
+			AverageLatency = averageLatency;
+			MaxLatency = maxLatency;
+			QueueDepth = queueDepth;
+			MaxQueueDepth = maxQueueDepth;
+		}
+
+		@Override
+		public String toString() {
+			return "delivered: " + DeliveredEvents + ", coalesced: " + CoalescedEvents +
+				", latency avg/max: " + AverageLatency + "/" + MaxLatency + " us" +
+				", queue depth: " + QueueDepth + " (max " + MaxQueueDepth + ")";
+		}
+	}
+
+	// per-method call statistics of this client
+	public ApiStatistics getStatistics() {
+		return myStatistics;
+	}
+
+	public DispatchStats getDispatchStats() {
+		return myApiListeners.getStats();
+	}
+
+	public void onServiceConnected(ComponentName className, IBinder service) {
+		try {
+			service.linkToDeath(myDeathRecipient, 0);
+		} catch (android.os.RemoteException e) {
+			// already dead, onServiceDisconnected() follows
+			return;
+		}
+		final Connection connection = new Connection(ApiInterface.Stub.asInterface(service), service);
+		final Connection previous = setConnection(connection);
+		if (previous == null) {
+			// disconnected meanwhile
+			unlinkToDeath(connection);
+			return;
+		}
+		unlinkToDeath(previous);
+		myHandler.removeCallbacks(myReconnectRunnable);
+		final long deathTime = myDeathTime;
+		if (deathTime != 0) {
+			myDeathTime = 0;
+			new Thread("FBReader API state replay") {
+				public void run() {
+					replayViewState();
+					myLastRecoveryTime = SystemClock.elapsedRealtime() - deathTime;
+					++myRecoveryCount;
+					if (myListener != null) {
+						myListener.onConnected();
+					}
+				}
+			}.start();
+		} else if (myListener != null) {
 			myListener.onConnected();
 		}
 	}
 
-	public synchronized void onServiceDisconnected(ComponentName name) {
-		myInterface = null;
+	public void onServiceDisconnected(ComponentName name) {
+		onServiceDied();
+	}
+
+	// called on a binder thread by the death recipient and on the main thread by the system
+	private synchronized void onServiceDied() {
+		if (myDeathTime != 0) {
+			return;
+		}
+		final Connection previous = setConnection(BINDING);
+		if (previous == null) {
+			return;
+		}
+		// the recipient keeps this client, and through it the context, alive
+		unlinkToDeath(previous);
+		myStateCache.reset();
+		myDeathTime = SystemClock.elapsedRealtime();
+		myReconnectDelay = INITIAL_RECONNECT_DELAY;
+		myHandler.post(myReconnectRunnable);
+	}
+
+	/*
+	 * Rebinds with exponential backoff capped by MAX_RECONNECT_DELAY;
+	 * gives up after RECONNECT_TIMEOUT, connect() starts over then.
+	 */
+	private synchronized void reconnect() {
+		if (myDeathTime == 0 || myConnection.get() != BINDING) {
+			return;
+		}
+		if (SystemClock.elapsedRealtime() - myDeathTime > RECONNECT_TIMEOUT) {
+			disconnect();
+			return;
+		}
+		try {
+			myContext.unbindService(this);
+		} catch (IllegalArgumentException e) {
+		}
+		myContext.bindService(new Intent(myPrefix + ACTION_API_POSTFIX), this, Context.BIND_AUTO_CREATE);
+		myHandler.postDelayed(myReconnectRunnable, myReconnectDelay);
+		myReconnectDelay = Math.min(2 * myReconnectDelay, MAX_RECONNECT_DELAY);
+	}
+
+	private void replayViewState() {
+		try {
+			final TextPosition pageStart = myLastPageStart;
+			if (pageStart != null) {
+				setPageStart(pageStart);
+			}
+			final TextPosition start = myLastHighlightingStart;
+			final TextPosition end = myLastHighlightingEnd;
+			if (start != null && end != null) {
+				highlightArea(start, end);
+			}
+		} catch (ApiException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// time from the last FBReader service death to the restored connection, in milliseconds; -1 if none
+	public long getLastRecoveryTime() {
+		return myLastRecoveryTime;
 	}
 
-	private synchronized void checkConnection() throws ApiException {
-		if (myInterface == null) {
+	public int getRecoveryCount() {
+		return myRecoveryCount;
+	}
+
+	/*
+	 * Replaces the state unless the client has been disconnected meanwhile;
+	 * returns the replaced state, or null if the state is not replaced.
+	 */
+	private Connection setConnection(Connection connection) {
+		while (true) {
+			final Connection current = myConnection.get();
+			if (current == null) {
+				return null;
+			}
+			if (myConnection.compareAndSet(current, connection)) {
+				return current;
+			}
+		}
+	}
+
+	private void unlinkToDeath(Connection connection) {
+		if (connection.Binder != null) {
+			try {
+				connection.Binder.unlinkToDeath(myDeathRecipient, 0);
+			} catch (NoSuchElementException e) {
+				// not linked
+			}
+		}
+	}
+
+	private ApiInterface getInterface() throws ApiException {
+		final Connection connection = myConnection.get();
+		if (connection == null || connection.Interface == null) {
 			throw new ApiException("Not connected to FBReader");
 		}
+		return connection.Interface;
 	}
 
-	private synchronized ApiObject request(int method, ApiObject[] params) throws ApiException {
-		checkConnection();
+	private ApiObject request(int method, ApiObject[] params) throws ApiException {
+		final ApiInterface iface = getInterface();
+		final long start = System.nanoTime();
+		boolean error = true;
 		try {
-			final ApiObject object = myInterface.request(method, params);
+			final ApiObject object = iface.request(method, params);
 			if (object instanceof ApiObject.Error) {
 				throw new ApiException(((ApiObject.Error)object).Message);
 			}
+			error = false;
 			return object;
 		} catch (android.os.RemoteException e) {
 			throw new ApiException(e);
+		} finally {
+			myStatistics.record(method, System.nanoTime() - start, error);
 		}
 	}
 
-	private synchronized List<ApiObject> requestList(int method, ApiObject[] params) throws ApiException {
-		checkConnection();
+	private List<ApiObject> requestList(int method, ApiObject[] params) throws ApiException {
+		final List<ApiObject> list = requestRawList(method, params);
+		for (ApiObject object : list) {
+			if (object instanceof ApiObject.Error) {
+				throw new ApiException(((ApiObject.Error)object).Message);
+			}
+		}
+		return list;
+	}
+
+	// errors in the list are returned as is
+	private List<ApiObject> requestRawList(int method, ApiObject[] params) throws ApiException {
+		final ApiInterface iface = getInterface();
+		final long start = System.nanoTime();
+		boolean error = true;
 		try {
-			final List<ApiObject> list = myInterface.requestList(method, params);
-			for (ApiObject object : list) {
-				if (object instanceof ApiObject.Error) {
-					throw new ApiException(((ApiObject.Error)object).Message);
+			final List<ApiObject> list = iface.requestList(method, params);
+			error = false;
+			for (int i = 0; i < list.size(); ++i) {
+				if (list.get(i) instanceof ApiObject.Error) {
+					error = true;
+					break;
 				}
 			}
 			return list;
 		} catch (android.os.RemoteException e) {
 			throw new ApiException(e);
+		} finally {
+			myStatistics.record(method, System.nanoTime() - start, error);
 		}
 	}
 
@@ -163,6 +413,22 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 		return (TextPosition)object;
 	}
 
+	private int[] requestIntArray(int method, ApiObject[] params) throws ApiException {
+		final ApiObject object = request(method, params);
+		if (!(object instanceof ApiObject.IntArray)) {
+			throw new ApiException("Cannot cast return type of method " + method + " to int[]");
+		}
+		return ((ApiObject.IntArray)object).Value;
+	}
+
+	private String[] requestStringArray(int method, ApiObject[] params) throws ApiException {
+		final ApiObject object = request(method, params);
+		if (!(object instanceof ApiObject.StringArray)) {
+			throw new ApiException("Cannot cast return type of method " + method + " to String[]");
+		}
+		return ((ApiObject.StringArray)object).Value;
+	}
+
 	private List<String> requestStringList(int method, ApiObject[] params) throws ApiException {
 		final List<ApiObject> list = requestList(method, params);
 		final ArrayList<String> stringList = new ArrayList<String>(list.size());
@@ -189,16 +455,49 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 
 	private static final ApiObject[] EMPTY_PARAMETERS = new ApiObject[0];
 
+	/*
+	 * Per-thread parameter arrays for requests with up to 3 parameters.
+	 * The binder proxy copies parameters into a parcel, so an array can be
+	 * reused as soon as the request returns; requests are never nested.
+	 */
+	private static final ThreadLocal<ApiObject[][]> ourParameters = new ThreadLocal<ApiObject[][]>() {
+		@Override
+		protected ApiObject[][] initialValue() {
+			return new ApiObject[][] { new ApiObject[1], new ApiObject[2], new ApiObject[3] };
+		}
+	};
+
+	private static ApiObject[] parameters(ApiObject p0) {
+		final ApiObject[] params = ourParameters.get()[0];
+		params[0] = p0;
+		return params;
+	}
+
+	private static ApiObject[] parameters(ApiObject p0, ApiObject p1) {
+		final ApiObject[] params = ourParameters.get()[1];
+		params[0] = p0;
+		params[1] = p1;
+		return params;
+	}
+
+	private static ApiObject[] parameters(ApiObject p0, ApiObject p1, ApiObject p2) {
+		final ApiObject[] params = ourParameters.get()[2];
+		params[0] = p0;
+		params[1] = p1;
+		params[2] = p2;
+		return params;
+	}
+
 	private static ApiObject[] envelope(String value) {
-		return new ApiObject[] { ApiObject.envelope(value) };
+		return parameters(ApiObject.envelope(value));
 	}
 
 	private static ApiObject[] envelope(int value) {
-		return new ApiObject[] { ApiObject.envelope(value) };
+		return parameters(ApiObject.envelope(value));
 	}
 
 	private static ApiObject[] envelope(long value) {
-		return new ApiObject[] { ApiObject.envelope(value) };
+		return parameters(ApiObject.envelope(value));
 	}
 
 	private static ApiObject[] envelope(List<String> value) {
@@ -227,14 +526,14 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	public String getOptionValue(String group, String name) throws ApiException {
 		return requestString(
 			GET_OPTION_VALUE,
-			new ApiObject[] { ApiObject.envelope(group), ApiObject.envelope(name) }
+			parameters(ApiObject.envelope(group), ApiObject.envelope(name))
 		);
 	}
 
 	public void setOptionValue(String group, String name, String value) throws ApiException {
 		request(
 			SET_OPTION_VALUE,
-			new ApiObject[] { ApiObject.envelope(group), ApiObject.envelope(name), ApiObject.envelope(value) }
+			parameters(ApiObject.envelope(group), ApiObject.envelope(name), ApiObject.envelope(value))
 		);
 	}
 
@@ -295,11 +594,23 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	}
 
 	public TextPosition getPageStart() throws ApiException {
-		return requestTextPosition(GET_PAGE_START, EMPTY_PARAMETERS);
+		final int version = myStateCache.version(StateCache.PAGE_START);
+		TextPosition position = (TextPosition)myStateCache.get(StateCache.PAGE_START, version);
+		if (position == null) {
+			position = requestTextPosition(GET_PAGE_START, EMPTY_PARAMETERS);
+			myStateCache.put(StateCache.PAGE_START, version, position);
+		}
+		return position;
 	}
 
 	public TextPosition getPageEnd() throws ApiException {
-		return requestTextPosition(GET_PAGE_END, EMPTY_PARAMETERS);
+		final int version = myStateCache.version(StateCache.PAGE_END);
+		TextPosition position = (TextPosition)myStateCache.get(StateCache.PAGE_END, version);
+		if (position == null) {
+			position = requestTextPosition(GET_PAGE_END, EMPTY_PARAMETERS);
+			myStateCache.put(StateCache.PAGE_END, version, position);
+		}
+		return position;
 	}
 
 	public boolean isPageEndOfSection() throws ApiException {
@@ -307,17 +618,49 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	}
 
 	public boolean isPageEndOfText() throws ApiException {
-		return requestBoolean(IS_PAGE_END_OF_TEXT, EMPTY_PARAMETERS);
+		final int version = myStateCache.version(StateCache.PAGE_END_OF_TEXT);
+		Boolean endOfText = (Boolean)myStateCache.get(StateCache.PAGE_END_OF_TEXT, version);
+		if (endOfText == null) {
+			endOfText = requestBoolean(IS_PAGE_END_OF_TEXT, EMPTY_PARAMETERS);
+			myStateCache.put(StateCache.PAGE_END_OF_TEXT, version, endOfText);
+		}
+		return endOfText;
 	}
 
 	public int getParagraphsNumber() throws ApiException {
-		return requestInt(GET_PARAGRAPHS_NUMBER, EMPTY_PARAMETERS);
+		final int version = myStateCache.version(StateCache.PARAGRAPHS_NUMBER);
+		Integer number = (Integer)myStateCache.get(StateCache.PARAGRAPHS_NUMBER, version);
+		if (number == null) {
+			number = requestInt(GET_PARAGRAPHS_NUMBER, EMPTY_PARAMETERS);
+			myStateCache.put(StateCache.PARAGRAPHS_NUMBER, version, number);
+		}
+		return number;
 	}
 
 	public String getParagraphText(int paragraphIndex) throws ApiException {
 		return requestString(GET_PARAGRAPH_TEXT, envelope(paragraphIndex));
 	}
 
+	public SortedMap<Integer,String> getParagraphTexts(int start, int count) throws ApiException {
+		final List<ApiObject> list = requestList(
+			GET_PARAGRAPH_TEXTS,
+			parameters(ApiObject.envelope(start), ApiObject.envelope(count))
+		);
+		final TreeMap<Integer,String> texts = new TreeMap<Integer,String>();
+		for (Iterator<ApiObject> it = list.iterator(); it.hasNext(); ) {
+			final ApiObject index = it.next();
+			if (!(index instanceof ApiObject.Integer) || !it.hasNext()) {
+				throw new ApiException("Cannot cast an element returned from method " + GET_PARAGRAPH_TEXTS + " to Integer");
+			}
+			final ApiObject text = it.next();
+			if (!(text instanceof ApiObject.String)) {
+				throw new ApiException("Cannot cast an element returned from method " + GET_PARAGRAPH_TEXTS + " to String");
+			}
+			texts.put(((ApiObject.Integer)index).Value, ((ApiObject.String)text).Value);
+		}
+		return texts;
+	}
+
 	public int getParagraphElementsCount(int paragraphIndex) throws ApiException {
 		return requestInt(GET_PARAGRAPH_ELEMENTS_COUNT, envelope(paragraphIndex));
 	}
@@ -330,15 +673,59 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 		return requestIntegerList(GET_PARAGRAPH_WORD_INDICES, envelope(paragraphIndex));
 	}
 
+	public String[] getParagraphWordsArray(int paragraphIndex) throws ApiException {
+		if (myArraysSupported) {
+			try {
+				return requestStringArray(GET_PARAGRAPH_WORDS_ARRAY, envelope(paragraphIndex));
+			} catch (ApiException e) {
+				onArrayRequestFailed(e);
+			}
+		}
+		final List<String> words = getParagraphWords(paragraphIndex);
+		return words.toArray(new String[words.size()]);
+	}
+
+	public int[] getParagraphWordIndicesArray(int paragraphIndex) throws ApiException {
+		if (myArraysSupported) {
+			try {
+				return requestIntArray(GET_PARAGRAPH_WORD_INDICES_ARRAY, envelope(paragraphIndex));
+			} catch (ApiException e) {
+				onArrayRequestFailed(e);
+			}
+		}
+		final List<Integer> indices = getParagraphWordIndices(paragraphIndex);
+		final int[] array = new int[indices.size()];
+		int i = 0;
+		for (Integer index : indices) {
+			array[i++] = index;
+		}
+		return array;
+	}
+
+	private void onArrayRequestFailed(ApiException e) throws ApiException {
+		if (!isConnected()) {
+			throw e;
+		}
+		// older FBReader versions do not know array methods
+		myArraysSupported = false;
+	}
+
 	public void setPageStart(TextPosition position) throws ApiException {
-		request(SET_PAGE_START, new ApiObject[] { position });
+		myLastPageStart = position;
+		myStateCache.invalidatePage();
+		request(SET_PAGE_START, parameters(position));
+		// values requested during the call may describe the old page
+		myStateCache.invalidatePage();
 	}
 
 	public void highlightArea(TextPosition start, TextPosition end) throws ApiException {
-		request(HIGHLIGHT_AREA, new ApiObject[] { start, end });
+		myLastHighlightingEnd = end;
+		myLastHighlightingStart = start;
+		request(HIGHLIGHT_AREA, parameters(start, end));
 	}
 
 	public void clearHighlighting() throws ApiException {
+		myLastHighlightingStart = null;
 		request(CLEAR_HIGHLIGHTING, EMPTY_PARAMETERS);
 	}
 
@@ -347,7 +734,7 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	}
 
 	public void setBottomMargin(int value) throws ApiException {
-		request(SET_BOTTOM_MARGIN, new ApiObject[] { ApiObject.envelope(value) });
+		request(SET_BOTTOM_MARGIN, parameters(ApiObject.envelope(value)));
 	}
 
 	public int getTopMargin() throws ApiException {
@@ -355,7 +742,7 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	}
 
 	public void setTopMargin(int value) throws ApiException {
-		request(SET_TOP_MARGIN, new ApiObject[] { ApiObject.envelope(value) });
+		request(SET_TOP_MARGIN, parameters(ApiObject.envelope(value)));
 	}
 
 	public int getLeftMargin() throws ApiException {
@@ -363,7 +750,7 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	}
 
 	public void setLeftMargin(int value) throws ApiException {
-		request(SET_LEFT_MARGIN, new ApiObject[] { ApiObject.envelope(value) });
+		request(SET_LEFT_MARGIN, parameters(ApiObject.envelope(value)));
 	}
 
 	public int getRightMargin() throws ApiException {
@@ -371,23 +758,23 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	}
 
 	public void setRightMargin(int value) throws ApiException {
-		request(SET_RIGHT_MARGIN, new ApiObject[] { ApiObject.envelope(value) });
+		request(SET_RIGHT_MARGIN, parameters(ApiObject.envelope(value)));
 	}
 
 	// action control
 	public String getKeyAction(int key, boolean longPress) throws ApiException {
-		return requestString(GET_KEY_ACTION, new ApiObject[] {
+		return requestString(GET_KEY_ACTION, parameters(
 			ApiObject.envelope(key),
 			ApiObject.envelope(longPress)
-		});
+		));
 	}
 
 	public void setKeyAction(int key, boolean longPress, String action) throws ApiException {
-		request(SET_KEY_ACTION, new ApiObject[] {
+		request(SET_KEY_ACTION, parameters(
 			ApiObject.envelope(key),
 			ApiObject.envelope(longPress),
 			ApiObject.envelope(action)
-		});
+		));
 	}
 
 	public List<String> listActions() throws ApiException {
@@ -419,11 +806,11 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 	}
 
 	public void createZoneMap(String name, int width, int height) throws ApiException {
-		request(CREATE_ZONEMAP, new ApiObject[] {
+		request(CREATE_ZONEMAP, parameters(
 			ApiObject.envelope(name),
 			ApiObject.envelope(width),
 			ApiObject.envelope(height)
-		});
+		));
 	}
 
 	public boolean isZoneMapCustom(String name) throws ApiException {
@@ -452,4 +839,222 @@ public class ApiClientImplementation implements ServiceConnection, Api, ApiMetho
 			ApiObject.envelope(action)
 		});
 	}
+
+	// batch requests
+	public Batch batch() {
+		return new Batch();
+	}
+
+	/*
+	 * Collects sub-requests to be sent in one BATCH transaction.
+	 * Results are accessed by sub-request position, see size().
+	 * A batch may be cleared and reused by the thread that owns it; once
+	 * it has seen its request shapes, reuse does not allocate.
+	 */
+	public class Batch {
+		private int[] myMethods = new int[4];
+		private int mySize;
+		private final ArrayList<ApiObject> myParameters = new ArrayList<ApiObject>();
+		// BATCH parameter arrays by length, the binder proxy copies them
+		private final ApiObject[][] myRequests = new ApiObject[16][];
+		private final Results myResults = new Results();
+
+		private Batch() {
+		}
+
+		// number of sub-requests added so far, i.e. the position of the next one
+		public int size() {
+			return mySize;
+		}
+
+		// the results of the previous execute() are not valid after this
+		public void clear() {
+			mySize = 0;
+			myParameters.clear();
+			myResults.myObjects = Collections.<ApiObject>emptyList();
+		}
+
+		private void start(int method, int paramsNumber) {
+			if (mySize == myMethods.length) {
+				final int[] methods = new int[mySize * 2];
+				System.arraycopy(myMethods, 0, methods, 0, mySize);
+				myMethods = methods;
+			}
+			myMethods[mySize++] = method;
+			myParameters.add(ApiObject.envelope(method));
+			myParameters.add(ApiObject.envelope(paramsNumber));
+		}
+
+		private Batch add(int method) {
+			start(method, 0);
+			return this;
+		}
+
+		private Batch add(int method, ApiObject p0) {
+			start(method, 1);
+			myParameters.add(p0);
+			return this;
+		}
+
+		private Batch add(int method, ApiObject p0, ApiObject p1) {
+			start(method, 2);
+			myParameters.add(p0);
+			myParameters.add(p1);
+			return this;
+		}
+
+		public Batch getParagraphText(int paragraphIndex) {
+			return add(GET_PARAGRAPH_TEXT, ApiObject.envelope(paragraphIndex));
+		}
+
+		public Batch getPageStart() {
+			return add(GET_PAGE_START);
+		}
+
+		public Batch getPageEnd() {
+			return add(GET_PAGE_END);
+		}
+
+		public Batch isPageEndOfText() {
+			return add(IS_PAGE_END_OF_TEXT);
+		}
+
+		public Batch setPageStart(TextPosition position) {
+			myLastPageStart = position;
+			return add(SET_PAGE_START, position);
+		}
+
+		public Batch highlightArea(TextPosition start, TextPosition end) {
+			myLastHighlightingEnd = end;
+			myLastHighlightingStart = start;
+			return add(HIGHLIGHT_AREA, start, end);
+		}
+
+		public Batch clearHighlighting() {
+			myLastHighlightingStart = null;
+			return add(CLEAR_HIGHLIGHTING);
+		}
+
+		private boolean contains(int method) {
+			for (int i = 0; i < mySize; ++i) {
+				if (myMethods[i] == method) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/*
+		 * Throws ApiException if the transaction itself fails;
+		 * errors of single sub-requests are reported by Results getters.
+		 * The results are valid until the batch is cleared.
+		 */
+		public Results execute() throws ApiException {
+			if (mySize == 0) {
+				myResults.myObjects = Collections.<ApiObject>emptyList();
+				return myResults;
+			}
+			final boolean turnsPage = contains(SET_PAGE_START);
+			if (turnsPage) {
+				myStateCache.invalidatePage();
+			}
+			try {
+				myResults.myObjects = executeRequests();
+				return myResults;
+			} finally {
+				if (turnsPage) {
+					myStateCache.invalidatePage();
+				}
+			}
+		}
+
+		private ApiObject[] batchParameters() {
+			final int length = myParameters.size();
+			ApiObject[] request = length < myRequests.length ? myRequests[length] : null;
+			if (request == null) {
+				request = new ApiObject[length];
+				if (length < myRequests.length) {
+					myRequests[length] = request;
+				}
+			}
+			return myParameters.toArray(request);
+		}
+
+		private List<ApiObject> executeRequests() throws ApiException {
+			if (myBatchSupported && mySize > 1) {
+				final List<ApiObject> results = requestRawList(BATCH, batchParameters());
+				if (results.size() == mySize) {
+					return results;
+				}
+				// older FBReader versions answer an unknown method with a single error
+				myBatchSupported = false;
+			}
+			final ArrayList<ApiObject> results = new ArrayList<ApiObject>(mySize);
+			for (int i = 0, index = 0; i < mySize; ++i) {
+				// method, parameters number, parameters
+				index += 1;
+				final ApiObject[] params = new ApiObject[((ApiObject.Integer)myParameters.get(index++)).Value];
+				for (int j = 0; j < params.length; ++j) {
+					params[j] = myParameters.get(index++);
+				}
+				try {
+					results.add(request(myMethods[i], params));
+				} catch (ApiException e) {
+					if (!isConnected()) {
+						throw e;
+					}
+					results.add(new ApiObject.Error(e.getMessage()));
+				}
+			}
+			return results;
+		}
+	}
+
+	public static class Results {
+		private List<ApiObject> myObjects = Collections.<ApiObject>emptyList();
+
+		private Results() {
+		}
+
+		public int size() {
+			return myObjects.size();
+		}
+
+		private ApiObject get(int index) throws ApiException {
+			final ApiObject object = myObjects.get(index);
+			if (object instanceof ApiObject.Error) {
+				throw new ApiException(((ApiObject.Error)object).Message);
+			}
+			return object;
+		}
+
+		// throws ApiException if the sub-request failed
+		public void check(int index) throws ApiException {
+			get(index);
+		}
+
+		public boolean getBoolean(int index) throws ApiException {
+			final ApiObject object = get(index);
+			if (!(object instanceof ApiObject.Boolean)) {
+				throw new ApiException("Cannot cast batch result " + index + " to boolean");
+			}
+			return ((ApiObject.Boolean)object).Value;
+		}
+
+		public String getString(int index) throws ApiException {
+			final ApiObject object = get(index);
+			if (!(object instanceof ApiObject.String)) {
+				throw new ApiException("Cannot cast batch result " + index + " to String");
+			}
+			return ((ApiObject.String)object).Value;
+		}
+
+		public TextPosition getTextPosition(int index) throws ApiException {
+			final ApiObject object = get(index);
+			if (!(object instanceof TextPosition)) {
+				throw new ApiException("Cannot cast batch result " + index + " to TextPosition");
+			}
+			return (TextPosition)object;
+		}
+	}
 }
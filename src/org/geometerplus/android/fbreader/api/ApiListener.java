@@ -8,5 +8,10 @@ public interface ApiListener {
 	String EVENT_READ_MODE_OPENED = "startReading";
 	String EVENT_READ_MODE_CLOSED = "stopReading";
 
+	// the current page is changed: page start, page end, end of text
+	int EVENT_PAGE_CHANGED = 1;
+	// another book is opened, page events are sent by the same versions
+	int EVENT_BOOK_CHANGED = 2;
+
 	void onEvent(int event);
 }
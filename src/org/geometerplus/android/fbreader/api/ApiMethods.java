@@ -36,6 +36,9 @@ interface ApiMethods {
 	int GET_PARAGRAPH_TEXT = 603;
 	int GET_PARAGRAPH_WORDS = 604;
 	int GET_PARAGRAPH_WORD_INDICES = 605;
+	int GET_PARAGRAPH_TEXTS = 606;
+	int GET_PARAGRAPH_WORDS_ARRAY = 607;
+	int GET_PARAGRAPH_WORD_INDICES_ARRAY = 608;
 
 	// page information
 	int GET_PAGE_START = 701;
@@ -74,4 +77,13 @@ interface ApiMethods {
 
 	int GET_TAPZONE_ACTION = 931;
 	int SET_TAPZONE_ACTION = 932;
+
+	// batch requests
+	/*
+	 * Parameters: method code, parameters number and parameters
+	 * of each sub-request in order. Result: one object per sub-request,
+	 * the sub-request result or an error. Only methods returning
+	 * a single object can be batched.
+	 */
+	int BATCH = 1001;
 }
@@ -6,6 +6,7 @@ package org.geometerplus.android.fbreader.api;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -19,6 +20,8 @@ public abstract class ApiObject implements Parcelable {
 		int BOOLEAN = 3;
 		int DATE = 4;
 		int LONG = 5;
+		int INT_ARRAY = 6;
+		int STRING_ARRAY = 7;
 		int TEXT_POSITION = 10;
 	}
 
@@ -35,6 +38,14 @@ public abstract class ApiObject implements Parcelable {
 	}
 
 	static class Integer extends ApiObject {
+		// flyweights for small values: paragraph counts, margins, flags
+		private static final Integer[] ourCache = new Integer[1024];
+		static {
+			for (int i = 0; i < ourCache.length; ++i) {
+				ourCache[i] = new Integer(i);
+			}
+		}
+
 		final int Value;
 
 		Integer(int value) {
@@ -73,6 +84,9 @@ public abstract class ApiObject implements Parcelable {
 	}
 
 	static class Boolean extends ApiObject {
+		static final Boolean TRUE = new Boolean(true);
+		static final Boolean FALSE = new Boolean(false);
+
 		final boolean Value;
 
 		Boolean(boolean value) {
@@ -129,6 +143,44 @@ public abstract class ApiObject implements Parcelable {
 		}
 	}
 
+	static class IntArray extends ApiObject {
+		final int[] Value;
+
+		IntArray(int[] value) {
+			Value = value;
+		}
+
+		@Override
+		protected int type() {
+			return Type.INT_ARRAY;
+		}
+
+		@Override
+		public void writeToParcel(Parcel parcel, int flags) {
+			super.writeToParcel(parcel, flags);
+			parcel.writeIntArray(Value);
+		}
+	}
+
+	static class StringArray extends ApiObject {
+		final java.lang.String[] Value;
+
+		StringArray(java.lang.String[] value) {
+			Value = value;
+		}
+
+		@Override
+		protected int type() {
+			return Type.STRING_ARRAY;
+		}
+
+		@Override
+		public void writeToParcel(Parcel parcel, int flags) {
+			super.writeToParcel(parcel, flags);
+			parcel.writeStringArray(Value);
+		}
+	}
+
 	static class Error extends ApiObject {
 		final java.lang.String Message;
 
@@ -149,7 +201,7 @@ public abstract class ApiObject implements Parcelable {
 	}
 
 	static ApiObject envelope(int value) {
-		return new Integer(value);
+		return value >= 0 && value < Integer.ourCache.length ? Integer.ourCache[value] : new Integer(value);
 	}
 
 	static ApiObject envelope(long value) {
@@ -157,7 +209,7 @@ public abstract class ApiObject implements Parcelable {
 	}
 
 	static ApiObject envelope(boolean value) {
-		return new Boolean(value);
+		return value ? Boolean.TRUE : Boolean.FALSE;
 	}
 
 	static ApiObject envelope(java.lang.String value) {
@@ -168,6 +220,14 @@ public abstract class ApiObject implements Parcelable {
 		return new Date(value);
 	}
 
+	static ApiObject envelope(int[] values) {
+		return new IntArray(values);
+	}
+
+	static ApiObject envelope(java.lang.String[] values) {
+		return new StringArray(values);
+	}
+
 	static List<ApiObject> envelopeStringList(List<java.lang.String> values) {
 		final ArrayList<ApiObject> objects = new ArrayList<ApiObject>(values.size());
 		for (java.lang.String v : values) {
@@ -179,7 +239,16 @@ public abstract class ApiObject implements Parcelable {
 	static List<ApiObject> envelopeIntegerList(List<java.lang.Integer> values) {
 		final ArrayList<ApiObject> objects = new ArrayList<ApiObject>(values.size());
 		for (java.lang.Integer v : values) {
-			objects.add(new Integer(v));
+			objects.add(envelope(v));
+		}
+		return objects;
+	}
+
+	static List<ApiObject> envelopeParagraphTexts(Map<java.lang.Integer,java.lang.String> texts) {
+		final ArrayList<ApiObject> objects = new ArrayList<ApiObject>(2 * texts.size());
+		for (Map.Entry<java.lang.Integer,java.lang.String> entry : texts.entrySet()) {
+			objects.add(envelope(entry.getKey()));
+			objects.add(new String(entry.getValue()));
 		}
 		return objects;
 	}
@@ -206,15 +275,19 @@ public abstract class ApiObject implements Parcelable {
 					case Type.VOID:
 						return Void.Instance;
 					case Type.INT:
-						return new Integer(parcel.readInt());
+						return envelope(parcel.readInt());
 					case Type.LONG:
 						return new Long(parcel.readLong());
 					case Type.BOOLEAN:
-						return new Boolean(parcel.readByte() == 1);
+						return envelope(parcel.readByte() == 1);
 					case Type.DATE:
 						return new Date(new java.util.Date(parcel.readLong()));
 					case Type.STRING:
 						return new String(parcel.readString());
+					case Type.INT_ARRAY:
+						return new IntArray(parcel.createIntArray());
+					case Type.STRING_ARRAY:
+						return new StringArray(parcel.createStringArray());
 					case Type.TEXT_POSITION:
 						return new TextPosition(parcel.readInt(), parcel.readInt(), parcel.readInt());
 				}
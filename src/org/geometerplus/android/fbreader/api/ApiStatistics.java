@@ -0,0 +1,137 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Per-method call counts, error counts and latency histograms.
+ * Recording takes no locks and allocates nothing: all counters of all
+ * methods live in one AtomicLongArray. Histogram bucket i counts calls
+ * faster than 2^(i + 6) microseconds, the last bucket counts the rest.
+ * Methods are named after ApiMethods constants (kept by proguard.cfg).
+ */
+public final class ApiStatistics {
+	private static final int BUCKETS = 16;
+	// calls, errors, total latency in microseconds, histogram
+	private static final int SLOT_SIZE = 3 + BUCKETS;
+	private static final int MAX_CODE = 2048;
+
+	private static final String[] ourNames;
+	private static final int[] ourIndices = new int[MAX_CODE];
+
+	static {
+		final java.util.ArrayList<String> names = new java.util.ArrayList<String>();
+		for (Field field : ApiMethods.class.getFields()) {
+			if (field.getType() != int.class || !Modifier.isStatic(field.getModifiers())) {
+				continue;
+			}
+			try {
+				final int code = field.getInt(null);
+				if (code > 0 && code < MAX_CODE && ourIndices[code] == 0) {
+					names.add(field.getName());
+					ourIndices[code] = names.size();
+				}
+			} catch (IllegalAccessException e) {
+			}
+		}
+		// index 0 is used for codes without a name
+		names.add(0, "UNKNOWN");
+		ourNames = names.toArray(new String[names.size()]);
+	}
+
+	// calls made by the current thread through any client
+	private static final ThreadLocal<long[]> ourThreadCallCount = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	private final AtomicLongArray myCounters = new AtomicLongArray(ourNames.length * SLOT_SIZE);
+
+	private static int index(int method) {
+		return method > 0 && method < MAX_CODE ? ourIndices[method] : 0;
+	}
+
+	private static int bucket(long micros) {
+		int bucket = 0;
+		for (long bound = 64; bucket < BUCKETS - 1 && micros >= bound; bound <<= 1) {
+			++bucket;
+		}
+		return bucket;
+	}
+
+	void record(int method, long nanos, boolean error) {
+		++ourThreadCallCount.get()[0];
+		final long micros = nanos / 1000;
+		final int base = index(method) * SLOT_SIZE;
+		myCounters.incrementAndGet(base);
+		if (error) {
+			myCounters.incrementAndGet(base + 1);
+		}
+		myCounters.addAndGet(base + 2, micros);
+		myCounters.incrementAndGet(base + 3 + bucket(micros));
+	}
+
+	// number of API calls made by the current thread so far
+	public static long getThreadCallCount() {
+		return ourThreadCallCount.get()[0];
+	}
+
+	public void reset() {
+		for (int i = 0; i < myCounters.length(); ++i) {
+			myCounters.set(i, 0);
+		}
+	}
+
+	// upper bound of the bucket holding the given percentile, in microseconds
+	private long percentile(int base, long calls, int percent) {
+		final long rank = (calls * percent + 99) / 100;
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			count += myCounters.get(base + 3 + i);
+			if (count >= rank) {
+				return i < BUCKETS - 1 ? 64L << i : Long.MAX_VALUE;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	private static String formatBound(long micros) {
+		return micros == Long.MAX_VALUE ? ">" + (64L << (BUCKETS - 2)) : "<" + micros;
+	}
+
+	public void write(Writer writer) throws IOException {
+		writer.write("method calls errors avg_us p50_us p90_us p99_us\n");
+		for (int index = 0; index < ourNames.length; ++index) {
+			final int base = index * SLOT_SIZE;
+			final long calls = myCounters.get(base);
+			if (calls == 0) {
+				continue;
+			}
+			writer.write(
+				ourNames[index] + " " + calls + " " + myCounters.get(base + 1) + " " +
+				myCounters.get(base + 2) / calls + " " +
+				formatBound(percentile(base, calls, 50)) + " " +
+				formatBound(percentile(base, calls, 90)) + " " +
+				formatBound(percentile(base, calls, 99)) + "\n"
+			);
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringWriter writer = new StringWriter();
+		try {
+			write(writer);
+		} catch (IOException e) {
+		}
+		return writer.toString();
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.concurrent.*;
+
+/*
+ * Asynchronous facade over a blocking Api.
+ * Queries run on a small pool, so independent calls overlap; results are
+ * delivered as futures or to callbacks. View management calls (page start,
+ * highlighting) are fire-and-forget and run on a separate serial queue,
+ * so they are applied in the order they were posted.
+ */
+public class AsyncApi {
+	public static interface Call<T> {
+		T call(Api api) throws ApiException;
+	}
+
+	public static interface Callback<T> {
+		void onResult(T result);
+		void onError(ApiException e);
+	}
+
+	public static final int DEFAULT_POOL_SIZE = 2;
+
+	private final Api myApi;
+	private final ExecutorService myPool;
+	private final ViewQueue myViewQueue;
+
+	public AsyncApi(Api api, int poolSize) {
+		myApi = api;
+		myPool = Executors.newFixedThreadPool(Math.max(poolSize, 1), new Factory("FBReader API"));
+		myViewQueue = new ViewQueue();
+		myViewQueue.start();
+	}
+
+	/*
+	 * Serial queue of view calls. Unlike an executor it keeps the calls
+	 * themselves in a ring buffer, so a reused call is posted without
+	 * allocations once the buffer has grown to the working size.
+	 * A failed call does not stop the queue.
+	 */
+	private final class ViewQueue extends Thread {
+		private Call<?>[] myCalls = new Call<?>[8];
+		private int myHead;
+		private int mySize;
+		private boolean myIsShutdown;
+
+		ViewQueue() {
+			super("FBReader API view");
+			setDaemon(true);
+		}
+
+		synchronized boolean post(Call<?> call) {
+			if (myIsShutdown) {
+				return false;
+			}
+			if (mySize == myCalls.length) {
+				final Call<?>[] calls = new Call<?>[mySize * 2];
+				for (int i = 0; i < mySize; ++i) {
+					calls[i] = myCalls[(myHead + i) % myCalls.length];
+				}
+				myCalls = calls;
+				myHead = 0;
+			}
+			myCalls[(myHead + mySize) % myCalls.length] = call;
+			++mySize;
+			notifyAll();
+			return true;
+		}
+
+		synchronized void shutdown() {
+			myIsShutdown = true;
+			notifyAll();
+		}
+
+		private synchronized Call<?> take() throws InterruptedException {
+			while (mySize == 0) {
+				if (myIsShutdown) {
+					return null;
+				}
+				wait();
+			}
+			final Call<?> call = myCalls[myHead];
+			myCalls[myHead] = null;
+			myHead = (myHead + 1) % myCalls.length;
+			--mySize;
+			return call;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (Call<?> call = take(); call != null; call = take()) {
+					try {
+						call.call(myApi);
+					} catch (ApiException e) {
+						e.printStackTrace();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	private static class Factory implements ThreadFactory {
+		private final String myName;
+
+		Factory(String name) {
+			myName = name;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, myName);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private <T> Callable<T> callable(final Call<T> call) {
+		return new Callable<T>() {
+			public T call() throws ApiException {
+				return call.call(myApi);
+			}
+		};
+	}
+
+	// Future.get() throws ExecutionException with ApiException as the cause
+	public <T> Future<T> submit(Call<T> call) {
+		return myPool.submit(callable(call));
+	}
+
+	// the callback is invoked on a pool thread
+	public <T> void submit(final Call<T> call, final Callback<T> callback) {
+		myPool.execute(new Runnable() {
+			public void run() {
+				final T result;
+				try {
+					result = call.call(myApi);
+				} catch (ApiException e) {
+					callback.onError(e);
+					return;
+				}
+				callback.onResult(result);
+			}
+		});
+	}
+
+	/*
+	 * Fire-and-forget, calls are run one by one in posting order.
+	 * The same call object may be posted again, even before it has run.
+	 * Calls posted after shutdown() are dropped.
+	 */
+	public void post(Call<?> call) {
+		myViewQueue.post(call);
+	}
+
+	public Future<TextPosition> getPageStart() {
+		return submit(new Call<TextPosition>() {
+			public TextPosition call(Api api) throws ApiException {
+				return api.getPageStart();
+			}
+		});
+	}
+
+	public Future<TextPosition> getPageEnd() {
+		return submit(new Call<TextPosition>() {
+			public TextPosition call(Api api) throws ApiException {
+				return api.getPageEnd();
+			}
+		});
+	}
+
+	public Future<Boolean> isPageEndOfText() {
+		return submit(new Call<Boolean>() {
+			public Boolean call(Api api) throws ApiException {
+				return api.isPageEndOfText();
+			}
+		});
+	}
+
+	public Future<String> getParagraphText(final int paragraphIndex) {
+		return submit(new Call<String>() {
+			public String call(Api api) throws ApiException {
+				return api.getParagraphText(paragraphIndex);
+			}
+		});
+	}
+
+	public void setPageStart(final TextPosition position) {
+		post(new Call<Object>() {
+			public Object call(Api api) throws ApiException {
+				api.setPageStart(position);
+				return null;
+			}
+		});
+	}
+
+	public void highlightArea(final TextPosition start, final TextPosition end) {
+		post(new Call<Object>() {
+			public Object call(Api api) throws ApiException {
+				api.highlightArea(start, end);
+				return null;
+			}
+		});
+	}
+
+	public void clearHighlighting() {
+		post(new Call<Object>() {
+			public Object call(Api api) throws ApiException {
+				api.clearHighlighting();
+				return null;
+			}
+		});
+	}
+
+	/*
+	 * Rejects new calls and waits up to timeout milliseconds
+	 * for the already posted view calls to be applied.
+	 */
+	public void shutdown(long timeout) {
+		myPool.shutdownNow();
+		myViewQueue.shutdown();
+		try {
+			myViewQueue.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Copy-on-write registry of API listeners.
+ * A listener registered without an executor is called on the dispatching
+ * thread. A listener with an executor gets its events on that executor;
+ * events arriving while earlier ones are still queued for it are coalesced,
+ * so a burst of identical events is delivered once, in the position of
+ * its last occurrence.
+ */
+final class ListenerRegistry {
+	private final class Entry implements Runnable {
+		final ApiListener Listener;
+		final Executor Executor;
+		// pending event -> time it was last posted, in nanoseconds
+		private final LinkedHashMap<Integer,Long> myPending = new LinkedHashMap<Integer,Long>();
+		private boolean myIsScheduled;
+
+		Entry(ApiListener listener, Executor executor) {
+			Listener = listener;
+			Executor = executor;
+		}
+
+		void post(int event, long time) {
+			synchronized (this) {
+				// a repeated event moves to the tail, so the last delivered event is the latest one
+				if (myPending.remove(event) != null) {
+					myPending.put(event, time);
+					myCoalescedCount.incrementAndGet();
+					return;
+				}
+				myPending.put(event, time);
+				updateQueueDepth(myQueueDepth.incrementAndGet());
+				if (myIsScheduled) {
+					return;
+				}
+				myIsScheduled = true;
+			}
+			Executor.execute(this);
+		}
+
+		public void run() {
+			while (true) {
+				final int event;
+				final long time;
+				synchronized (this) {
+					if (myPending.isEmpty()) {
+						myIsScheduled = false;
+						return;
+					}
+					event = myPending.keySet().iterator().next();
+					time = myPending.remove(event);
+				}
+				myQueueDepth.decrementAndGet();
+				deliver(Listener, event, time);
+			}
+		}
+	}
+
+	private final CopyOnWriteArrayList<Entry> myEntries = new CopyOnWriteArrayList<Entry>();
+
+	private final AtomicLong myDeliveredCount = new AtomicLong();
+	private final AtomicLong myCoalescedCount = new AtomicLong();
+	private final AtomicLong myTotalLatency = new AtomicLong();
+	private final AtomicLong myMaxLatency = new AtomicLong();
+	private final AtomicInteger myQueueDepth = new AtomicInteger();
+	private final AtomicInteger myMaxQueueDepth = new AtomicInteger();
+
+	void add(ApiListener listener, Executor executor) {
+		myEntries.add(new Entry(listener, executor));
+	}
+
+	void remove(ApiListener listener) {
+		for (Entry entry : myEntries) {
+			if (entry.Listener == listener) {
+				myEntries.remove(entry);
+			}
+		}
+	}
+
+	boolean isEmpty() {
+		return myEntries.isEmpty();
+	}
+
+	void dispatch(int event) {
+		final long time = System.nanoTime();
+		for (Entry entry : myEntries) {
+			if (entry.Executor == null) {
+				deliver(entry.Listener, event, time);
+			} else {
+				entry.post(event, time);
+			}
+		}
+	}
+
+	private void deliver(ApiListener listener, int event, long time) {
+		final long latency = System.nanoTime() - time;
+		myDeliveredCount.incrementAndGet();
+		myTotalLatency.addAndGet(latency);
+		for (long max = myMaxLatency.get(); latency > max; max = myMaxLatency.get()) {
+			if (myMaxLatency.compareAndSet(max, latency)) {
+				break;
+			}
+		}
+		listener.onEvent(event);
+	}
+
+	private void updateQueueDepth(int depth) {
+		for (int max = myMaxQueueDepth.get(); depth > max; max = myMaxQueueDepth.get()) {
+			if (myMaxQueueDepth.compareAndSet(max, depth)) {
+				break;
+			}
+		}
+	}
+
+	ApiClientImplementation.DispatchStats getStats() {
+		final long delivered = myDeliveredCount.get();
+		return new ApiClientImplementation.DispatchStats(
+			delivered,
+			myCoalescedCount.get(),
+			delivered > 0 ? myTotalLatency.get() / delivered / 1000 : 0,
+			myMaxLatency.get() / 1000,
+			myQueueDepth.get(),
+			myMaxQueueDepth.get()
+		);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Client-side cache of page and book state, invalidated by FBReader events.
+ * Older FBReader versions do not send page and book events, so the cache
+ * stays disabled until the first such event is received; until then every
+ * value is requested from FBReader.
+ * A value fetched while an invalidation happens is stored with the old
+ * version and is never returned.
+ */
+final class StateCache {
+	static final int PAGE_START = 0;
+	static final int PAGE_END = 1;
+	static final int PAGE_END_OF_TEXT = 2;
+	static final int PARAGRAPHS_NUMBER = 3;
+	private static final int SIZE = 4;
+
+	private static final class Entry {
+		final int Version;
+		final Object Value;
+
+		Entry(int version, Object value) {
+			Version = version;
+			Value = value;
+		}
+	}
+
+	private volatile boolean myIsEnabled;
+	private final AtomicInteger myPageVersion = new AtomicInteger();
+	private final AtomicInteger myBookVersion = new AtomicInteger();
+	private final AtomicReferenceArray<Entry> myEntries = new AtomicReferenceArray<Entry>(SIZE);
+
+	// to be read before the value is requested and passed to get() and put()
+	int version(int key) {
+		return key == PARAGRAPHS_NUMBER ? myBookVersion.get() : myPageVersion.get();
+	}
+
+	// returns null if the value is not cached
+	Object get(int key, int version) {
+		if (!myIsEnabled) {
+			return null;
+		}
+		final Entry entry = myEntries.get(key);
+		return entry != null && entry.Version == version ? entry.Value : null;
+	}
+
+	void put(int key, int version, Object value) {
+		myEntries.set(key, new Entry(version, value));
+	}
+
+	void onEvent(int event) {
+		switch (event) {
+			case ApiListener.EVENT_BOOK_CHANGED:
+				myBookVersion.incrementAndGet();
+				myPageVersion.incrementAndGet();
+				myIsEnabled = true;
+				break;
+			case ApiListener.EVENT_PAGE_CHANGED:
+				myPageVersion.incrementAndGet();
+				myIsEnabled = true;
+				break;
+		}
+	}
+
+	// the page is changed by this client
+	void invalidatePage() {
+		myPageVersion.incrementAndGet();
+	}
+
+	// the connection is lost, FBReader may be restarted in another version
+	void reset() {
+		myIsEnabled = false;
+		myBookVersion.incrementAndGet();
+		myPageVersion.incrementAndGet();
+	}
+}
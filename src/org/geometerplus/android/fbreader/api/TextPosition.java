@@ -12,6 +12,30 @@ public final class TextPosition extends ApiObject {
 	public final int ElementIndex;
 	public final int CharIndex;
 
+	// direct-mapped caches of paragraph boundary positions, races only cost an extra allocation
+	private static final int CACHE_SIZE = 64;
+	private static final TextPosition[] ourStartCache = new TextPosition[CACHE_SIZE];
+	private static final TextPosition[] ourEndCache = new TextPosition[CACHE_SIZE];
+
+	public static TextPosition paragraphStart(int paragraphIndex) {
+		return cached(ourStartCache, paragraphIndex, 0);
+	}
+
+	// the position after the last element of the paragraph
+	public static TextPosition paragraphEnd(int paragraphIndex) {
+		return cached(ourEndCache, paragraphIndex, java.lang.Integer.MAX_VALUE);
+	}
+
+	private static TextPosition cached(TextPosition[] cache, int paragraphIndex, int elementIndex) {
+		final int slot = paragraphIndex & (CACHE_SIZE - 1);
+		TextPosition position = cache[slot];
+		if (position == null || position.ParagraphIndex != paragraphIndex) {
+			position = new TextPosition(paragraphIndex, elementIndex, 0);
+			cache[slot] = position;
+		}
+		return position;
+	}
+
 	public TextPosition(int paragraphIndex, int elementIndex, int charIndex) {
 		ParagraphIndex = paragraphIndex;
 		ElementIndex = elementIndex;
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * Size-bounded LRU directory of pre-synthesized utterances.
+ */
+class AudioCache {
+	static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+	private static final String SUFFIX = ".wav";
+
+	private final File myDirectory;
+	private final long myMaxSize;
+
+	AudioCache(File directory, long maxSize) {
+		myDirectory = directory;
+		myMaxSize = maxSize;
+		myDirectory.mkdirs();
+	}
+
+	static String key(String bookHash, String voice, Utterance utterance) {
+		return bookHash + "/" + voice + "/" + utterance.ParagraphIndex + "/" +
+			utterance.Start.ElementIndex + "/" + utterance.Text.hashCode();
+	}
+
+	private static String fileName(String key) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes());
+			final StringBuilder name = new StringBuilder(2 * digest.length);
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16));
+				name.append(Character.forDigit(b & 0xF, 16));
+			}
+			return name.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(key.hashCode());
+		}
+	}
+
+	// returns the cached file, or null if the utterance is not cached
+	synchronized File get(String key) {
+		final File file = new File(myDirectory, fileName(key) + SUFFIX);
+		if (!file.exists()) {
+			return null;
+		}
+		LruDirectory.touch(file);
+		return file;
+	}
+
+	// file to synthesize into, passed to commit() when synthesis is completed
+	File temporaryFile(String key) {
+		return new File(myDirectory, fileName(key) + ".tmp");
+	}
+
+	synchronized File commit(String key) {
+		final String name = fileName(key) + SUFFIX;
+		final File tmp = temporaryFile(key);
+		final File file = new File(myDirectory, name);
+		if (tmp.length() == 0 || !tmp.renameTo(file)) {
+			tmp.delete();
+			return null;
+		}
+		LruDirectory.trim(myDirectory, myMaxSize, name);
+		return file;
+	}
+}
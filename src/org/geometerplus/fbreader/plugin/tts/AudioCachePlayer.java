@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+
+/*
+ * Plays the utterance queue of the reading engine from pre-synthesized
+ * files. Upcoming utterances are rendered ahead of the play cursor with
+ * synthesizeToFile(), one request at a time, and the player for the next
+ * file is prepared in advance, so that consecutive cached utterances play
+ * without engine round trips. An utterance that is neither cached nor
+ * being rendered is spoken live.
+ * Must be used on the reading engine thread only.
+ */
+class AudioCachePlayer implements MediaPlayer.OnCompletionListener, MediaPlayer.OnErrorListener {
+	interface Listener {
+		void onPlayed(String id);
+	}
+
+	private static final String SYNTHESIS_PREFIX = "synthesis:";
+	// the utterance is spoken live if its rendering is not finished in this time, in milliseconds
+	private static final long SYNTHESIS_WAIT_TIMEOUT = 3000;
+
+	private final AudioCache myCache;
+	private final SpeechEngine myTTS;
+	private final EngineQueue myMessageQueue;
+	private final Listener myListener;
+	private final String myBookHash;
+	private String myVoice = "";
+
+	private Map<String,Utterance> myQueue = Collections.emptyMap();
+
+	private String myPlayingId;
+	private MediaPlayer myPlayer;
+	private boolean myIsWaitingForSynthesis;
+
+	private String myNextId;
+	private MediaPlayer myNextPlayer;
+
+	private String mySynthesizingId;
+	private String mySynthesizingKey;
+
+	private final Runnable mySynthesisTimeout = new Runnable() {
+		public void run() {
+			final Utterance utterance = myQueue.get(myPlayingId);
+			if (myIsWaitingForSynthesis && utterance != null) {
+				myIsWaitingForSynthesis = false;
+				speakLive(myPlayingId, utterance);
+			}
+		}
+	};
+
+	// message queue of the reading engine thread, used for the synthesis wait timeout
+	AudioCachePlayer(AudioCache cache, SpeechEngine tts, EngineQueue messageQueue, String bookHash, Listener listener) {
+		myCache = cache;
+		myTTS = tts;
+		myMessageQueue = messageQueue;
+		myBookHash = bookHash;
+		myListener = listener;
+	}
+
+	// voice parameters (language, rate) that affect synthesized audio
+	void setVoice(String voice) {
+		myVoice = voice;
+	}
+
+	private String key(Utterance utterance) {
+		return AudioCache.key(myBookHash, myVoice, utterance);
+	}
+
+	// the first utterance of the queue is played, the rest are rendered ahead
+	void update(Map<String,Utterance> queue) {
+		myQueue = queue;
+		final Iterator<Map.Entry<String,Utterance>> it = queue.entrySet().iterator();
+		if (!it.hasNext()) {
+			stop();
+			return;
+		}
+		final Map.Entry<String,Utterance> head = it.next();
+		if (!head.getKey().equals(myPlayingId)) {
+			play(head.getKey(), head.getValue());
+		}
+		if (it.hasNext()) {
+			final Map.Entry<String,Utterance> next = it.next();
+			prepareNext(next.getKey(), next.getValue());
+		}
+		synthesizeAhead();
+	}
+
+	// returns true if the id belongs to a synthesis request
+	boolean onUtteranceCompleted(String uttId) {
+		if (!uttId.startsWith(SYNTHESIS_PREFIX)) {
+			return false;
+		}
+		final String id = uttId.substring(SYNTHESIS_PREFIX.length());
+		if (!id.equals(mySynthesizingId)) {
+			return true;
+		}
+
+		final File file = myCache.commit(mySynthesizingKey);
+		mySynthesizingId = null;
+		mySynthesizingKey = null;
+		if (myIsWaitingForSynthesis && id.equals(myPlayingId)) {
+			setWaitingForSynthesis(false);
+			myPlayer = file != null ? createPlayer(file) : null;
+			if (myPlayer != null) {
+				myPlayer.start();
+			} else {
+				speakLive(id, myQueue.get(id));
+			}
+		}
+		update(myQueue);
+		return true;
+	}
+
+	void stop() {
+		releasePlayer();
+		releaseNextPlayer();
+		cancelSynthesis();
+		myPlayingId = null;
+		setWaitingForSynthesis(false);
+		myTTS.stop();
+	}
+
+	private void play(String id, Utterance utterance) {
+		releasePlayer();
+		myPlayingId = id;
+		setWaitingForSynthesis(false);
+
+		if (id.equals(myNextId) && myNextPlayer != null) {
+			myPlayer = myNextPlayer;
+			myNextPlayer = null;
+			myNextId = null;
+			myPlayer.start();
+			return;
+		}
+		releaseNextPlayer();
+
+		final File file = myCache.get(key(utterance));
+		if (file != null) {
+			myPlayer = createPlayer(file);
+			if (myPlayer != null) {
+				myPlayer.start();
+				return;
+			}
+		}
+		if (id.equals(mySynthesizingId)) {
+			setWaitingForSynthesis(true);
+			return;
+		}
+		speakLive(id, utterance);
+	}
+
+	private void setWaitingForSynthesis(boolean waiting) {
+		myIsWaitingForSynthesis = waiting;
+		myMessageQueue.removeCallbacks(mySynthesisTimeout);
+		if (waiting) {
+			myMessageQueue.postDelayed(mySynthesisTimeout, SYNTHESIS_WAIT_TIMEOUT);
+		}
+	}
+
+	private void speakLive(String id, Utterance utterance) {
+		// QUEUE_FLUSH drops the pending synthesis request as well
+		cancelSynthesis();
+		myTTS.speak(utterance.Text, true, id);
+	}
+
+	private void prepareNext(String id, Utterance utterance) {
+		if (id.equals(myNextId)) {
+			return;
+		}
+		releaseNextPlayer();
+		final File file = myCache.get(key(utterance));
+		if (file != null) {
+			myNextPlayer = createPlayer(file);
+			if (myNextPlayer != null) {
+				myNextId = id;
+			}
+		}
+	}
+
+	private void synthesizeAhead() {
+		if (mySynthesizingId != null) {
+			return;
+		}
+		for (Map.Entry<String,Utterance> entry : myQueue.entrySet()) {
+			final String id = entry.getKey();
+			if (id.equals(myPlayingId) && !myIsWaitingForSynthesis) {
+				continue;
+			}
+			final String key = key(entry.getValue());
+			if (myCache.get(key) != null) {
+				continue;
+			}
+			final String path = myCache.temporaryFile(key).getPath();
+			if (myTTS.synthesizeToFile(entry.getValue().Text, SYNTHESIS_PREFIX + id, path)) {
+				mySynthesizingId = id;
+				mySynthesizingKey = key;
+			}
+			return;
+		}
+	}
+
+	private void cancelSynthesis() {
+		if (mySynthesizingKey != null) {
+			myCache.temporaryFile(mySynthesizingKey).delete();
+		}
+		mySynthesizingId = null;
+		mySynthesizingKey = null;
+	}
+
+	private MediaPlayer createPlayer(File file) {
+		final MediaPlayer player = new MediaPlayer();
+		try {
+			player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+			player.setDataSource(file.getPath());
+			player.setOnCompletionListener(this);
+			player.setOnErrorListener(this);
+			player.prepare();
+			return player;
+		} catch (IOException e) {
+			player.release();
+			file.delete();
+			return null;
+		}
+	}
+
+	private void releasePlayer() {
+		if (myPlayer != null) {
+			myPlayer.release();
+			myPlayer = null;
+		}
+	}
+
+	private void releaseNextPlayer() {
+		if (myNextPlayer != null) {
+			myNextPlayer.release();
+			myNextPlayer = null;
+		}
+		myNextId = null;
+	}
+
+	// implements MediaPlayer.OnCompletionListener
+	public void onCompletion(MediaPlayer player) {
+		if (player == myPlayer) {
+			final String id = myPlayingId;
+			releasePlayer();
+			myPlayingId = null;
+			myListener.onPlayed(id);
+		}
+	}
+
+	// implements MediaPlayer.OnErrorListener
+	public boolean onError(MediaPlayer player, int what, int extra) {
+		if (player == myPlayer) {
+			releasePlayer();
+			final Utterance utterance = myQueue.get(myPlayingId);
+			if (utterance != null) {
+				speakLive(myPlayingId, utterance);
+			}
+		} else if (player == myNextPlayer) {
+			releaseNextPlayer();
+		}
+		return true;
+	}
+}
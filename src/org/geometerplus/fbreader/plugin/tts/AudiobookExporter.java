@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.speech.tts.TextToSpeech;
+import android.util.Log;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Exports the whole book into a directory of WAV files.
+ * The book is split into segments of consecutive paragraphs bounded by
+ * SEGMENT_SIZE characters; segments are synthesized by a pool of workers,
+ * each owning its own TextToSpeech instance. The TTS service keeps one queue
+ * per calling package, so the workers keep the queue filled but segments are
+ * still synthesized one at a time.
+ * A queue flush by playback (speak() with QUEUE_FLUSH, stop()) also drops
+ * the queued export requests, so a segment not completed in time is
+ * requested again, up to MAX_ATTEMPTS times.
+ * Each completed segment is appended to the checkpoint file as
+ * "index start end length", so an interrupted export skips completed
+ * segments (without reading their texts) when started again.
+ */
+class AudiobookExporter implements Runnable {
+	static final int DEFAULT_WORKERS = 2;
+	static final int SEGMENT_SIZE = 3000;
+
+	private static final String CHECKPOINT = "checkpoint";
+	private static final String UTTERANCE_ID = "export:";
+	private static final int MAX_ATTEMPTS = 3;
+	// per segment and per queued segment ahead of it
+	private static final long SYNTHESIS_TIMEOUT_BASE = 60000;
+	private static final long SYNTHESIS_TIMEOUT_PER_CHAR = 100;
+
+	interface Listener {
+		void onExportProgress(int paragraphIndex, int paragraphsNumber);
+		// error is null if the export is completed
+		void onExportFinished(File directory, String report, String error);
+	}
+
+	private static final class Segment {
+		final int Index;
+		final int Start;
+		final int End;
+		final String Text;
+
+		Segment(int index, int start, int end, String text) {
+			Index = index;
+			Start = start;
+			End = end;
+			Text = text;
+		}
+	}
+
+	// put into the queue once per worker after the last segment
+	private static final Segment END = new Segment(-1, 0, 0, null);
+
+	private final Context myContext;
+	private final ApiClientImplementation myApi;
+	private final ParagraphTextReader myReader;
+	private final File myRootDirectory;
+	private final float myRate;
+	private final Listener myListener;
+	private final Worker[] myWorkers;
+	private final BlockingQueue<Segment> myQueue;
+	// completed segments read from the checkpoint file, index -> {start, end}
+	private final Map<Integer,int[]> myCompleted = new HashMap<Integer,int[]>();
+
+	private int myParagraphsNumber;
+	private File myDirectory;
+	private Locale myLocale;
+
+	private volatile boolean myIsCancelled;
+	private volatile String myError;
+	private long myStartTime;
+	private long myCharCount;
+	private int myRetryCount;
+
+	// each book is exported into its own subdirectory of rootDirectory
+	AudiobookExporter(Context context, ApiClientImplementation api, File rootDirectory, float rate, int workers, Listener listener) {
+		myContext = context;
+		myApi = api;
+		myReader = new ParagraphTextReader(api);
+		myRootDirectory = rootDirectory;
+		myRate = rate;
+		myListener = listener;
+		myWorkers = new Worker[Math.max(workers, 1)];
+		myQueue = new ArrayBlockingQueue<Segment>(2 * myWorkers.length);
+	}
+
+	void start() {
+		final Thread thread = new Thread(this, "TTS audiobook exporter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void cancel() {
+		myIsCancelled = true;
+		myQueue.clear();
+	}
+
+	private void openBook() throws ApiException {
+		myParagraphsNumber = myApi.getParagraphsNumber();
+		final String languageCode = myApi.getBookLanguage();
+		myLocale = languageCode == null || "other".equals(languageCode)
+			? Locale.getDefault() : new Locale(languageCode);
+		final String title = myApi.getBookTitle();
+		final String hash = myApi.getBookHash();
+		final StringBuilder name = new StringBuilder();
+		if (title != null) {
+			name.append(title.replaceAll("[^\\p{L}\\p{N}\\- ]", "_"));
+		}
+		if (hash != null) {
+			name.append('-').append(hash.substring(0, Math.min(8, hash.length())));
+		}
+		myDirectory = new File(myRootDirectory, name.length() > 0 ? name.toString() : "book");
+	}
+
+	public void run() {
+		try {
+			openBook();
+		} catch (ApiException e) {
+			myListener.onExportFinished(null, null, e.getMessage());
+			return;
+		}
+		myDirectory.mkdirs();
+		readCheckpoint();
+		myStartTime = SystemClock.elapsedRealtime();
+		for (int i = 0; i < myWorkers.length; ++i) {
+			myWorkers[i] = new Worker(i);
+			myWorkers[i].start();
+		}
+
+		try {
+			produceSegments();
+		} catch (ApiException e) {
+			myError = e.getMessage();
+		} catch (InterruptedException e) {
+			myIsCancelled = true;
+		}
+		try {
+			for (Worker worker : myWorkers) {
+				if (myIsCancelled || myError != null) {
+					myQueue.clear();
+				}
+				myQueue.put(END);
+			}
+			for (Worker worker : myWorkers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			myIsCancelled = true;
+		}
+
+		final String report = report();
+		Log.i("FBReaderTTS", report);
+		if (!myIsCancelled) {
+			myListener.onExportFinished(myDirectory, report, myError);
+		}
+	}
+
+	private void produceSegments() throws ApiException, InterruptedException {
+		final StringBuilder text = new StringBuilder();
+		int segmentIndex = 0;
+		int segmentStart = 0;
+		SortedMap<Integer,String> texts = null;
+		int rangeStart = 0;
+		int rangeEnd = 0;
+		int index = 0;
+		while (index < myParagraphsNumber && !myIsCancelled && myError == null) {
+			if (text.length() == 0) {
+				final int[] completed = myCompleted.get(segmentIndex);
+				if (completed != null && completed[0] == index) {
+					++segmentIndex;
+					index = completed[1];
+					continue;
+				}
+			}
+			if (texts == null || index < rangeStart || index >= rangeEnd) {
+				rangeStart = index;
+				rangeEnd = index + Math.min(myReader.rangeSize(), myParagraphsNumber - index);
+				texts = myReader.read(rangeStart, rangeEnd - rangeStart);
+				myListener.onExportProgress(index, myParagraphsNumber);
+			}
+			final String paragraph = texts.get(index);
+			if (paragraph != null) {
+				if (text.length() > 0 && text.length() + paragraph.length() > SEGMENT_SIZE) {
+					myQueue.put(new Segment(segmentIndex++, segmentStart, index, text.toString()));
+					text.setLength(0);
+					// the paragraph starts the next segment, that may be already completed
+					continue;
+				}
+				if (text.length() == 0) {
+					segmentStart = index;
+				} else {
+					text.append('\n');
+				}
+				text.append(paragraph);
+			}
+			++index;
+		}
+		if (text.length() > 0 && !myIsCancelled && myError == null) {
+			myQueue.put(new Segment(segmentIndex, segmentStart, index, text.toString()));
+		}
+	}
+
+	private File segmentFile(int index) {
+		return new File(myDirectory, String.format(Locale.US, "%05d.wav", index + 1));
+	}
+
+	private void readCheckpoint() {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(new File(myDirectory, CHECKPOINT)));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split(" ");
+				// an interrupted write may leave a truncated last line
+				if (fields.length != 4) {
+					continue;
+				}
+				try {
+					final int index = Integer.parseInt(fields[0]);
+					if (segmentFile(index).exists()) {
+						myCompleted.put(index, new int[] {
+							Integer.parseInt(fields[1]), Integer.parseInt(fields[2])
+						});
+					}
+				} catch (NumberFormatException e) {
+				}
+			}
+		} catch (IOException e) {
+			// no checkpoint, the export starts from the beginning
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private synchronized void onSegmentCompleted(Segment segment) {
+		myCharCount += segment.Text.length();
+		Writer writer = null;
+		try {
+			writer = new FileWriter(new File(myDirectory, CHECKPOINT), true);
+			writer.write(segment.Index + " " + segment.Start + " " + segment.End + " " + segment.Text.length() + "\n");
+		} catch (IOException e) {
+			// the segment will be synthesized again on resume
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private synchronized void onSegmentTimedOut() {
+		++myRetryCount;
+	}
+
+	private synchronized String report() {
+		final long elapsed = Math.max(SystemClock.elapsedRealtime() - myStartTime, 1);
+		final StringBuilder report = new StringBuilder();
+		report.append("Audiobook export: ").append(myCharCount).append(" chars in ")
+			.append(elapsed / 1000).append(" s, ")
+			.append(1000 * myCharCount / elapsed).append(" chars/s, ")
+			.append(myRetryCount).append(" segments requested again; worker utilization:");
+		for (Worker worker : myWorkers) {
+			if (worker != null) {
+				report.append(' ').append(100 * worker.myBusyTime / elapsed).append('%');
+			}
+		}
+		// waiting for the shared TTS queue counts as busy time
+		report.append(" (the workers share one TTS queue, segments are not synthesized in parallel)");
+		return report.toString();
+	}
+
+	private class Worker extends Thread implements TextToSpeech.OnInitListener, TextToSpeech.OnUtteranceCompletedListener {
+		private final CountDownLatch myInitLatch = new CountDownLatch(1);
+		private volatile int myInitStatus = TextToSpeech.ERROR;
+		private volatile String myCompletedId;
+		private volatile long myBusyTime;
+
+		// synthesize() results
+		private static final int SYNTHESIZED = 0;
+		private static final int FAILED = 1;
+		private static final int TIMED_OUT = 2;
+
+		Worker(int index) {
+			super("TTS export worker " + index);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			final TextToSpeech tts = new TextToSpeech(myContext, this);
+			try {
+				myInitLatch.await();
+				if (myInitStatus == TextToSpeech.ERROR) {
+					myError = "TextToSpeech initialization failed";
+					drain();
+					return;
+				}
+				tts.setOnUtteranceCompletedListener(this);
+				Locale locale = myLocale;
+				if (tts.isLanguageAvailable(locale) < 0) {
+					locale = Locale.getDefault();
+					if (tts.isLanguageAvailable(locale) < 0) {
+						locale = Locale.ENGLISH;
+					}
+				}
+				tts.setLanguage(locale);
+				tts.setSpeechRate(myRate);
+
+				while (true) {
+					final Segment segment = myQueue.take();
+					if (segment == END) {
+						return;
+					}
+					if (myIsCancelled || myError != null) {
+						continue;
+					}
+					final long start = SystemClock.elapsedRealtime();
+					final int result = synthesize(tts, segment);
+					if (result == SYNTHESIZED) {
+						onSegmentCompleted(segment);
+					} else if (result == FAILED && !myIsCancelled) {
+						myError = "Could not write " + segmentFile(segment.Index);
+					} else if (result == TIMED_OUT) {
+						myError = "Synthesis timed out for " + segmentFile(segment.Index);
+					}
+					myBusyTime += SystemClock.elapsedRealtime() - start;
+				}
+			} catch (InterruptedException e) {
+				myIsCancelled = true;
+			} finally {
+				tts.shutdown();
+			}
+		}
+
+		// skips queued segments up to END, so the producer is never blocked
+		private void drain() throws InterruptedException {
+			while (myQueue.take() != END) {
+			}
+		}
+
+		private int synthesize(TextToSpeech tts, Segment segment) throws InterruptedException {
+			final File file = segmentFile(segment.Index);
+			// the engine serves the segments of all workers one by one
+			final long timeout = myWorkers.length *
+				(SYNTHESIS_TIMEOUT_BASE + SYNTHESIS_TIMEOUT_PER_CHAR * segment.Text.length());
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt) {
+				// a request that was not dropped may complete late, so each attempt has its own id and file
+				final String id = UTTERANCE_ID + segment.Index + ":" + attempt;
+				final File tmp = new File(myDirectory, file.getName() + "." + attempt + ".tmp");
+				final HashMap<String,String> params = new HashMap<String,String>();
+				params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, id);
+				final long deadline = SystemClock.elapsedRealtime() + timeout;
+				boolean completed;
+				synchronized (this) {
+					myCompletedId = null;
+					if (tts.synthesizeToFile(segment.Text, params, tmp.getPath()) != TextToSpeech.SUCCESS) {
+						return FAILED;
+					}
+					long left;
+					while (!(completed = id.equals(myCompletedId)) && !myIsCancelled &&
+							(left = deadline - SystemClock.elapsedRealtime()) > 0) {
+						wait(Math.min(left, 1000));
+					}
+				}
+				if (myIsCancelled) {
+					tts.stop();
+					tmp.delete();
+					return FAILED;
+				}
+				if (completed) {
+					return tmp.length() > 0 && tmp.renameTo(file) ? SYNTHESIZED : FAILED;
+				}
+				// probably dropped by a queue flush
+				tmp.delete();
+				onSegmentTimedOut();
+			}
+			return TIMED_OUT;
+		}
+
+		// implements TextToSpeech.OnInitListener
+		public void onInit(int status) {
+			myInitStatus = status;
+			myInitLatch.countDown();
+		}
+
+		// implements TextToSpeech.OnUtteranceCompletedListener
+		public synchronized void onUtteranceCompleted(String utteranceId) {
+			myCompletedId = utteranceId;
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.File;
+
+import android.app.*;
+import android.content.Context;
+import android.os.Build;
+import android.os.Environment;
+import android.os.PowerManager;
+
+/*
+ * Calls of methods missing on older API levels (the manifest allows 4).
+ * Each nested class uses methods of one level and is loaded only
+ * on devices that have them.
+ */
+final class Compatibility {
+	private static final class Level5 {
+		static void startForeground(Service service, int id, Notification notification) {
+			service.startForeground(id, notification);
+		}
+
+		static void stopForeground(Service service) {
+			service.stopForeground(true);
+		}
+	}
+
+	private static final class Level7 {
+		static boolean isScreenOn(Context context) {
+			return ((PowerManager)context.getSystemService(Context.POWER_SERVICE)).isScreenOn();
+		}
+	}
+
+	private static final class Level8 {
+		static File getExternalCacheDir(Context context) {
+			return context.getExternalCacheDir();
+		}
+	}
+
+	private Compatibility() {
+	}
+
+	static void startForeground(Service service, int id, Notification notification) {
+		if (Build.VERSION.SDK_INT >= 5) {
+			Level5.startForeground(service, id, notification);
+		} else {
+			service.setForeground(true);
+			((NotificationManager)service.getSystemService(Context.NOTIFICATION_SERVICE)).notify(id, notification);
+		}
+	}
+
+	static void stopForeground(Service service, int id) {
+		if (Build.VERSION.SDK_INT >= 5) {
+			Level5.stopForeground(service);
+		} else {
+			((NotificationManager)service.getSystemService(Context.NOTIFICATION_SERVICE)).cancel(id);
+			service.setForeground(false);
+		}
+	}
+
+	// null if the external storage is not mounted
+	static File getExternalCacheDir(Context context) {
+		if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+			return null;
+		}
+		if (Build.VERSION.SDK_INT >= 8) {
+			return Level8.getExternalCacheDir(context);
+		}
+		// the directory getExternalCacheDir() returns on newer levels
+		return new File(
+			Environment.getExternalStorageDirectory(),
+			"Android/data/" + context.getPackageName() + "/cache"
+		);
+	}
+
+	// on older levels the screen is assumed to be on
+	static boolean isScreenOn(Context context) {
+		return Build.VERSION.SDK_INT < 7 || Level7.isScreenOn(context);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+/*
+ * Message queue of the reading engine thread. On the device it is
+ * HandlerEngineQueue, a Handler on its own HandlerThread; the reading loop
+ * simulator runs the engine on a plain Java thread.
+ * Messages are told apart by their what codes. All methods but start()
+ * may be called from any thread.
+ */
+interface EngineQueue {
+	interface Callback {
+		void handleMessage(int what, int arg, Object obj);
+	}
+
+	// starts the thread, messages are passed to the callback from now on
+	void start(Callback callback);
+	// stops the thread after the current message, pending messages are dropped
+	void quit();
+
+	void send(int what, int arg, Object obj);
+	void sendDelayed(int what, long delay);
+	// the message is handled before the pending ones
+	void sendAtFront(int what);
+	boolean has(int what);
+	void remove(int what);
+	// removes all pending messages and runnables
+	void clear();
+
+	void post(Runnable runnable);
+	void postDelayed(Runnable runnable, long delay);
+	void removeCallbacks(Runnable runnable);
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+final class HandlerEngineQueue implements EngineQueue, Handler.Callback {
+	private final HandlerThread myThread;
+	private volatile Handler myHandler;
+	private Callback myCallback;
+
+	HandlerEngineQueue(String name, int priority) {
+		myThread = new HandlerThread(name, priority);
+	}
+
+	public void start(Callback callback) {
+		myCallback = callback;
+		myThread.start();
+		myHandler = new Handler(myThread.getLooper(), this);
+	}
+
+	public void quit() {
+		// HandlerThread.quit() appeared in API level 5
+		myThread.getLooper().quit();
+	}
+
+	public boolean handleMessage(Message message) {
+		myCallback.handleMessage(message.what, message.arg1, message.obj);
+		return true;
+	}
+
+	public void send(int what, int arg, Object obj) {
+		myHandler.sendMessage(myHandler.obtainMessage(what, arg, 0, obj));
+	}
+
+	public void sendDelayed(int what, long delay) {
+		myHandler.sendEmptyMessageDelayed(what, delay);
+	}
+
+	public void sendAtFront(int what) {
+		myHandler.sendMessageAtFrontOfQueue(myHandler.obtainMessage(what));
+	}
+
+	public boolean has(int what) {
+		return myHandler.hasMessages(what);
+	}
+
+	public void remove(int what) {
+		myHandler.removeMessages(what);
+	}
+
+	public void clear() {
+		myHandler.removeCallbacksAndMessages(null);
+	}
+
+	public void post(Runnable runnable) {
+		myHandler.post(runnable);
+	}
+
+	public void postDelayed(Runnable runnable, long delay) {
+		myHandler.postDelayed(runnable, delay);
+	}
+
+	public void removeCallbacks(Runnable runnable) {
+		myHandler.removeCallbacks(runnable);
+	}
+}
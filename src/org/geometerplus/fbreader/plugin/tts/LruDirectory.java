@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * Size-bounded directory of cache files. File modification time
+ * serves as the last access time.
+ */
+final class LruDirectory {
+	private LruDirectory() {
+	}
+
+	static void touch(File file) {
+		file.setLastModified(System.currentTimeMillis());
+	}
+
+	// removes least recently used files until the total size fits maxSize
+	static void trim(File directory, long maxSize, String keepName) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f0, File f1) {
+				final long m0 = f0.lastModified();
+				final long m1 = f1.lastModified();
+				return m0 < m1 ? 1 : (m0 == m1 ? 0 : -1);
+			}
+		});
+		long total = 0;
+		for (File f : files) {
+			total += f.length();
+			if (total > maxSize && !f.getName().equals(keepName)) {
+				total -= f.length();
+				f.delete();
+			}
+		}
+	}
+}
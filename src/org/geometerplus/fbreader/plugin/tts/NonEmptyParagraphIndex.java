@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.Set;
+
+/*
+ * Bitmap of non-empty paragraphs, filled as paragraph texts are read.
+ * Lets skip navigation find the target paragraph without any IPC once
+ * the paragraphs between the current and the target one are known.
+ */
+class NonEmptyParagraphIndex {
+	// returned by next() and previous() if some paragraph in between is not known yet
+	static final int UNKNOWN = -2;
+	// returned by previous() if there are no non-empty paragraphs before
+	static final int NONE = -1;
+
+	private final int mySize;
+	private final BitSet myKnown;
+	private final BitSet myNonEmpty;
+	private boolean myIsModified;
+
+	NonEmptyParagraphIndex(int size) {
+		mySize = size;
+		myKnown = new BitSet(size);
+		myNonEmpty = new BitSet(size);
+	}
+
+	int size() {
+		return mySize;
+	}
+
+	synchronized void setRange(int start, int count, Set<Integer> nonEmpty) {
+		final int end = Math.min(start + count, mySize);
+		if (start >= end) {
+			return;
+		}
+		myKnown.set(start, end);
+		myNonEmpty.clear(start, end);
+		for (int index : nonEmpty) {
+			if (start <= index && index < end) {
+				myNonEmpty.set(index);
+			}
+		}
+		myIsModified = true;
+	}
+
+	synchronized boolean isComplete() {
+		return myKnown.nextClearBit(0) >= mySize;
+	}
+
+	synchronized boolean isModified() {
+		return myIsModified;
+	}
+
+	// first non-empty paragraph with index >= from, size() if there are no such paragraphs
+	synchronized int next(int from) {
+		if (from >= mySize) {
+			return mySize;
+		}
+		from = Math.max(from, 0);
+		final int firstUnknown = myKnown.nextClearBit(from);
+		final int nonEmpty = myNonEmpty.nextSetBit(from);
+		if (nonEmpty != -1 && nonEmpty < firstUnknown) {
+			return nonEmpty;
+		}
+		return firstUnknown >= mySize ? mySize : UNKNOWN;
+	}
+
+	// last non-empty paragraph with index < before
+	synchronized int previous(int before) {
+		for (int i = Math.min(before, mySize) - 1; i >= 0; --i) {
+			if (!myKnown.get(i)) {
+				return UNKNOWN;
+			}
+			if (myNonEmpty.get(i)) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+
+	synchronized void write(DataOutputStream stream) throws IOException {
+		stream.writeInt(mySize);
+		writeBits(stream, myKnown);
+		writeBits(stream, myNonEmpty);
+		myIsModified = false;
+	}
+
+	private void writeBits(DataOutputStream stream, BitSet bits) throws IOException {
+		for (int i = 0; i < mySize; i += 8) {
+			int b = 0;
+			for (int j = 0; j < 8; ++j) {
+				if (bits.get(i + j)) {
+					b |= 1 << j;
+				}
+			}
+			stream.writeByte(b);
+		}
+	}
+
+	static NonEmptyParagraphIndex read(DataInputStream stream, int size) throws IOException {
+		if (stream.readInt() != size) {
+			return null;
+		}
+		final NonEmptyParagraphIndex index = new NonEmptyParagraphIndex(size);
+		readBits(stream, index.myKnown, size);
+		readBits(stream, index.myNonEmpty, size);
+		return index;
+	}
+
+	private static void readBits(DataInputStream stream, BitSet bits, int size) throws IOException {
+		for (int i = 0; i < size; i += 8) {
+			final int b = stream.readUnsignedByte();
+			for (int j = 0; j < 8; ++j) {
+				if ((b & (1 << j)) != 0) {
+					bits.set(i + j);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.*;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Keeps a window of the next non-empty paragraphs fetched ahead of playback.
+ * Paragraph texts are requested on a separate thread, so the consumer
+ * normally takes already fetched text without any binder round trip.
+ * Texts are fetched in ranges, so the window can temporarily hold up to
+ * one range more than its depth.
+ */
+class ParagraphPrefetcher implements Runnable {
+	static final int DEFAULT_DEPTH = 4;
+
+	static final class Paragraph {
+		final int Index;
+		final String Text;
+		final List<Utterance> Utterances;
+
+		Paragraph(int index, String text, List<Utterance> utterances) {
+			Index = index;
+			Text = text;
+			Utterances = utterances;
+		}
+	}
+
+	private final ParagraphTextReader myReader;
+	private final SentenceSegmenter mySegmenter;
+	private final int myParagraphsNumber;
+	private final int myDepth;
+	private final LinkedList<Paragraph> myWindow = new LinkedList<Paragraph>();
+
+	// index the next poll() call is expected to start from
+	private int myStartIndex = -1;
+	// index of the next paragraph to be fetched
+	private int myFetchIndex;
+	// incremented on each reset, fetch results of older generations are dropped
+	private int myGeneration;
+	private ApiException myError;
+	private boolean myIsStopped;
+
+	private volatile int myHitCount;
+	private volatile int myMissCount;
+
+	ParagraphPrefetcher(ParagraphTextReader reader, SentenceSegmenter segmenter, int paragraphsNumber, int depth) {
+		myReader = reader;
+		mySegmenter = segmenter;
+		myParagraphsNumber = paragraphsNumber;
+		myDepth = Math.max(depth, 1);
+		myFetchIndex = paragraphsNumber;
+
+		final Thread thread = new Thread(this, "TTS paragraph prefetcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	int getHitCount() {
+		return myHitCount;
+	}
+
+	int getMissCount() {
+		return myMissCount;
+	}
+
+	synchronized void stop() {
+		myIsStopped = true;
+		myWindow.clear();
+		notifyAll();
+	}
+
+	private void reset(int fromIndex) {
+		++myGeneration;
+		myWindow.clear();
+		myError = null;
+		myStartIndex = fromIndex;
+		myFetchIndex = fromIndex;
+		notifyAll();
+	}
+
+	/*
+	 * Returns the first non-empty paragraph with index >= fromIndex,
+	 * or null if there are no such paragraphs.
+	 */
+	synchronized Paragraph poll(int fromIndex) throws ApiException {
+		if (fromIndex != myStartIndex) {
+			reset(fromIndex);
+		}
+
+		final boolean hit = !myWindow.isEmpty();
+		try {
+			while (myWindow.isEmpty() && myError == null && !myIsStopped &&
+				   myFetchIndex < myParagraphsNumber) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+
+		if (myError != null) {
+			final ApiException error = myError;
+			myStartIndex = -1;
+			throw error;
+		}
+		if (myWindow.isEmpty()) {
+			myStartIndex = myParagraphsNumber;
+			return null;
+		}
+
+		if (hit) {
+			++myHitCount;
+		} else {
+			++myMissCount;
+		}
+		final Paragraph paragraph = myWindow.removeFirst();
+		myStartIndex = paragraph.Index + 1;
+		notifyAll();
+		return paragraph;
+	}
+
+	public void run() {
+		while (true) {
+			final int start;
+			final int count;
+			final int generation;
+			synchronized (this) {
+				try {
+					while (!myIsStopped && (myError != null ||
+						   myWindow.size() >= myDepth || myFetchIndex >= myParagraphsNumber)) {
+						wait();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (myIsStopped) {
+					return;
+				}
+				start = myFetchIndex;
+				count = Math.min(myReader.rangeSize(), myParagraphsNumber - start);
+				generation = myGeneration;
+			}
+
+			final ArrayList<Paragraph> paragraphs = new ArrayList<Paragraph>();
+			ApiException error = null;
+			try {
+				for (Map.Entry<Integer,String> entry : myReader.read(start, count).entrySet()) {
+					final int index = entry.getKey();
+					final String text = entry.getValue();
+					paragraphs.add(new Paragraph(
+						index,
+						text,
+						mySegmenter != null
+							? mySegmenter.split(index, text)
+							: Collections.singletonList(new Utterance(index, text))
+					));
+				}
+			} catch (ApiException e) {
+				error = e;
+			}
+
+			synchronized (this) {
+				if (generation != myGeneration) {
+					continue;
+				}
+				if (error != null) {
+					myError = error;
+				} else {
+					myFetchIndex = start + count;
+					myWindow.addAll(paragraphs);
+				}
+				notifyAll();
+			}
+		}
+	}
+}
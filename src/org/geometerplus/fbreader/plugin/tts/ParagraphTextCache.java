@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import android.content.SharedPreferences;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * On-disk cache of paragraph texts, one file per book hash.
+ * File layout: magic, paragraphs number, paragraphsNumber + 1 offsets
+ * into the text blob, UTF-8 text blob. Files are memory-mapped, so
+ * repeated sessions read paragraph texts without any IPC.
+ * Eviction is LRU by total size, file modification time is used as
+ * the last access time. The non-empty paragraph index of the book is
+ * stored next to the texts.
+ */
+class ParagraphTextCache {
+	static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+	private static final int MAGIC = 0x46425450;
+	private static final String SUFFIX = ".ptc";
+	private static final String INDEX_SUFFIX = ".nei";
+
+	static final class Book {
+		final String Hash;
+		private final int myParagraphsNumber;
+		private final MappedByteBuffer myBuffer;
+		private final int myBlobStart;
+
+		private Book(String hash, int paragraphsNumber, MappedByteBuffer buffer) {
+			Hash = hash;
+			myParagraphsNumber = paragraphsNumber;
+			myBuffer = buffer;
+			myBlobStart = 4 * (paragraphsNumber + 3);
+		}
+
+		int getParagraphsNumber() {
+			return myParagraphsNumber;
+		}
+
+		synchronized void fillIndex(NonEmptyParagraphIndex index) {
+			final HashSet<Integer> nonEmpty = new HashSet<Integer>();
+			for (int i = 0; i < myParagraphsNumber; ++i) {
+				if (myBuffer.getInt(4 * (i + 2)) != myBuffer.getInt(4 * (i + 3))) {
+					nonEmpty.add(i);
+				}
+			}
+			index.setRange(0, myParagraphsNumber, nonEmpty);
+		}
+
+		synchronized String getText(int index) {
+			if (index < 0 || index >= myParagraphsNumber) {
+				return "";
+			}
+			final int start = myBuffer.getInt(4 * (index + 2));
+			final int end = myBuffer.getInt(4 * (index + 3));
+			if (start == end) {
+				return "";
+			}
+			final byte[] bytes = new byte[end - start];
+			myBuffer.position(myBlobStart + start);
+			myBuffer.get(bytes);
+			return decode(bytes);
+		}
+	}
+
+	private final File myDirectory;
+	private final SharedPreferences myIndex;
+	private final long myMaxSize;
+
+	ParagraphTextCache(File directory, SharedPreferences index, long maxSize) {
+		myDirectory = directory;
+		myIndex = index;
+		myMaxSize = maxSize;
+		myDirectory.mkdirs();
+	}
+
+	private File file(String hash) {
+		return new File(myDirectory, hash + SUFFIX);
+	}
+
+	private File indexFile(String hash) {
+		return new File(myDirectory, hash + INDEX_SUFFIX);
+	}
+
+	// returns the stored index of the book, or an empty one
+	synchronized NonEmptyParagraphIndex loadIndex(String hash, int paragraphsNumber) {
+		final File file = indexFile(hash);
+		if (file.exists()) {
+			try {
+				final DataInputStream stream = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file))
+				);
+				try {
+					final NonEmptyParagraphIndex index =
+						NonEmptyParagraphIndex.read(stream, paragraphsNumber);
+					if (index != null) {
+						return index;
+					}
+				} finally {
+					stream.close();
+				}
+			} catch (IOException e) {
+			}
+			file.delete();
+		}
+		return new NonEmptyParagraphIndex(paragraphsNumber);
+	}
+
+	synchronized void storeIndex(String hash, NonEmptyParagraphIndex index) {
+		try {
+			final DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(indexFile(hash)))
+			);
+			try {
+				index.write(stream);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			indexFile(hash).delete();
+		}
+	}
+
+	/*
+	 * Returns the cached texts of the book, or null if there are none.
+	 * Cache files of previous hashes of the same book file are removed.
+	 */
+	synchronized Book open(String bookPath, String hash, int paragraphsNumber) {
+		if (hash == null) {
+			return null;
+		}
+		if (bookPath != null) {
+			final String oldHash = myIndex.getString(bookPath, null);
+			if (oldHash != null && !oldHash.equals(hash)) {
+				file(oldHash).delete();
+				indexFile(oldHash).delete();
+			}
+			if (!hash.equals(oldHash)) {
+				myIndex.edit().putString(bookPath, hash).commit();
+			}
+		}
+
+		final File file = file(hash);
+		if (!file.exists()) {
+			return null;
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final MappedByteBuffer buffer =
+				raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != paragraphsNumber) {
+				file.delete();
+				return null;
+			}
+			LruDirectory.touch(file);
+			return new Book(hash, paragraphsNumber, buffer);
+		} catch (IOException e) {
+			file.delete();
+			return null;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	synchronized void store(String hash, List<String> texts) throws IOException {
+		final File tmp = new File(myDirectory, hash + ".tmp");
+		final DataOutputStream stream = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(tmp))
+		);
+		try {
+			final ArrayList<byte[]> encoded = new ArrayList<byte[]>(texts.size());
+			for (String t : texts) {
+				encoded.add(encode(t));
+			}
+			stream.writeInt(MAGIC);
+			stream.writeInt(texts.size());
+			int offset = 0;
+			stream.writeInt(offset);
+			for (byte[] bytes : encoded) {
+				offset += bytes.length;
+				stream.writeInt(offset);
+			}
+			for (byte[] bytes : encoded) {
+				stream.write(bytes);
+			}
+		} finally {
+			stream.close();
+		}
+		if (!tmp.renameTo(file(hash))) {
+			tmp.delete();
+			throw new IOException("Cannot rename " + tmp);
+		}
+		LruDirectory.trim(myDirectory, myMaxSize, hash + SUFFIX);
+		trimIndex();
+	}
+
+	// removes book path entries whose files are all evicted
+	private void trimIndex() {
+		SharedPreferences.Editor editor = null;
+		for (Map.Entry<String,?> entry : myIndex.getAll().entrySet()) {
+			final Object hash = entry.getValue();
+			if (!(hash instanceof String) ||
+				(!file((String)hash).exists() && !indexFile((String)hash).exists())) {
+				if (editor == null) {
+					editor = myIndex.edit();
+				}
+				editor.remove(entry.getKey());
+			}
+		}
+		if (editor != null) {
+			editor.commit();
+		}
+	}
+
+	/*
+	 * Fetches all the paragraph texts in background and stores them.
+	 * Gives up if FBReader cannot send paragraph ranges: reading the book
+	 * paragraph by paragraph would compete with the reading loop.
+	 */
+	static class Builder extends Thread {
+		interface Listener {
+			void onBuilt(Book book);
+		}
+
+		private final ParagraphTextCache myCache;
+		private final ParagraphTextReader myReader;
+		private final NonEmptyParagraphIndex myIndex;
+		private final String myBookPath;
+		private final String myHash;
+		private final int myParagraphsNumber;
+		private final Listener myListener;
+		private volatile boolean myIsCancelled;
+
+		Builder(ParagraphTextCache cache, ApiClientImplementation api, NonEmptyParagraphIndex index, String bookPath, String hash, int paragraphsNumber, Listener listener) {
+			super("TTS paragraph cache builder");
+			setDaemon(true);
+			setPriority(MIN_PRIORITY);
+			myCache = cache;
+			myReader = new ParagraphTextReader(api, true);
+			myReader.setIndex(index);
+			myIndex = index;
+			myBookPath = bookPath;
+			myHash = hash;
+			myParagraphsNumber = paragraphsNumber;
+			myListener = listener;
+		}
+
+		void cancel() {
+			myIsCancelled = true;
+		}
+
+		@Override
+		public void run() {
+			final ArrayList<String> texts = new ArrayList<String>(myParagraphsNumber);
+			try {
+				while (texts.size() < myParagraphsNumber) {
+					if (myIsCancelled) {
+						return;
+					}
+					final int start = texts.size();
+					final int count = Math.min(ParagraphTextReader.RANGE_SIZE, myParagraphsNumber - start);
+					final SortedMap<Integer,String> range = myReader.read(start, count);
+					for (int i = start; i < start + count; ++i) {
+						final String text = range.get(i);
+						texts.add(text != null ? text : "");
+					}
+				}
+				myCache.store(myHash, texts);
+				myCache.storeIndex(myHash, myIndex);
+				final Book book = myCache.open(myBookPath, myHash, myParagraphsNumber);
+				if (book != null && !myIsCancelled) {
+					myListener.onBuilt(book);
+				}
+			} catch (ApiException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static byte[] encode(String text) {
+		try {
+			return text.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String decode(byte[] bytes) {
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
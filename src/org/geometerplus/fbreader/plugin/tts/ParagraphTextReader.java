@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Reads paragraph texts in ranges, one transaction per range.
+ * FBReader versions without range support are served paragraph by paragraph.
+ * If the book is in the paragraph text cache, no transactions are made at all.
+ * Fetched ranges are recorded in the non-empty paragraph index.
+ */
+class ParagraphTextReader {
+	static final int RANGE_SIZE = 32;
+
+	private final ApiClientImplementation myApi;
+	// if true, read() fails instead of reading paragraph by paragraph
+	private final boolean myRangeOnly;
+	private volatile boolean myRangeSupported = true;
+	private volatile ParagraphTextCache.Book myBook;
+	private volatile NonEmptyParagraphIndex myIndex;
+
+	ParagraphTextReader(ApiClientImplementation api) {
+		this(api, false);
+	}
+
+	ParagraphTextReader(ApiClientImplementation api, boolean rangeOnly) {
+		myApi = api;
+		myRangeOnly = rangeOnly;
+	}
+
+	void setBook(ParagraphTextCache.Book book) {
+		myBook = book;
+	}
+
+	void setIndex(NonEmptyParagraphIndex index) {
+		myIndex = index;
+	}
+
+	// false once FBReader has failed a range request
+	boolean isRangeSupported() {
+		return myRangeSupported;
+	}
+
+	// preferred number of paragraphs per read() call
+	int rangeSize() {
+		return myRangeSupported || myBook != null ? RANGE_SIZE : 1;
+	}
+
+	SortedMap<Integer,String> read(int start, int count) throws ApiException {
+		final ParagraphTextCache.Book book = myBook;
+		if (book != null) {
+			final TreeMap<Integer,String> texts = new TreeMap<Integer,String>();
+			for (int i = start; i < start + count; ++i) {
+				final String text = book.getText(i);
+				if (text.length() > 0) {
+					texts.put(i, text);
+				}
+			}
+			return texts;
+		}
+		SortedMap<Integer,String> texts = null;
+		if (myRangeSupported || myRangeOnly) {
+			try {
+				texts = myApi.getParagraphTexts(start, count);
+			} catch (ApiException e) {
+				if (!myApi.isConnected()) {
+					// the connection is lost, not the range support
+					throw e;
+				}
+				myRangeSupported = false;
+				if (myRangeOnly) {
+					throw e;
+				}
+				texts = readOneByOne(start, count);
+			}
+		} else {
+			texts = readOneByOne(start, count);
+		}
+		final NonEmptyParagraphIndex index = myIndex;
+		if (index != null) {
+			index.setRange(start, count, texts.keySet());
+		}
+		return texts;
+	}
+
+	private SortedMap<Integer,String> readOneByOne(int start, int count) throws ApiException {
+		final TreeMap<Integer,String> texts = new TreeMap<Integer,String>();
+		for (int i = start; i < start + count; ++i) {
+			final String text = myApi.getParagraphText(i);
+			if (text != null && text.length() > 0) {
+				texts.put(i, text);
+			}
+		}
+		return texts;
+	}
+}
@@ -0,0 +1,907 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.*;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Runs the read-advance loop on the thread of its EngineQueue. All FBReader
+ * API traffic and all speech engine control happen there; the UI only posts
+ * commands and receives state updates through the Listener.
+ */
+class ReadingEngine implements EngineQueue.Callback, SpeechEngine.Listener, AudioCachePlayer.Listener, ApiListener {
+	interface Listener {
+		void onBookOpened(String title);
+		void onStateChanged(boolean active, boolean canGoBackward, boolean canGoForward);
+		void onMessage(CharSequence text, boolean fatal);
+	}
+
+	private static final String UTTERANCE_ID = "FBReaderTTSPlugin";
+	private static final int DEFAULT_QUEUE_LENGTH = 3;
+
+	private static final int INITIALIZE = 0;
+	private static final int PLAY = 1;
+	private static final int PAUSE = 2;
+	private static final int SKIP = 3;
+	private static final int SET_RATE = 4;
+	private static final int UTTERANCE_COMPLETED = 5;
+	private static final int SHUTDOWN = 6;
+	private static final int TEXT_CACHE_BUILT = 7;
+	private static final int RECONNECTED = 8;
+	private static final int RECONNECT_TIMEOUT = 9;
+	private static final int SCREEN_OFF = 10;
+	private static final int SCREEN_ON = 11;
+
+	// playback resumes if FBReader service is back within this time, in milliseconds
+	private static final long RECONNECT_BUDGET = 10000;
+
+	private final Context myContext;
+	private final ApiClientImplementation myApi;
+	// view updates are posted here, the engine thread does not wait for them
+	private final AsyncApi myAsyncApi;
+	// whether the current page shows the end of text, updated by view updates
+	private volatile boolean myPageEndOfText;
+	// the fields below are accessed on the view update thread only
+	// page range, requested after a turn or a page change in FBReader; null if unknown
+	private TextPosition myVisibleStart;
+	private TextPosition myVisibleEnd;
+	// highlighted area, null if highlighting is cleared
+	private TextPosition myHighlightedStart;
+	private TextPosition myHighlightedEnd;
+	// false if FBReader may show a highlighting not set by this engine
+	private boolean myIsHighlightingKnown;
+	private final ApiClientImplementation.Batch myViewBatch;
+	// guarded by itself, taken on the engine thread and returned on the view update thread
+	private final ArrayList<ViewUpdate> myFreeViewUpdates = new ArrayList<ViewUpdate>();
+	private final SharedPreferences myPreferences;
+	private final Listener myListener;
+	private final EngineQueue myMessageQueue;
+
+	// number of paragraphs to skip, accumulated by next() and previous()
+	private final AtomicInteger myPendingSkip = new AtomicInteger();
+	// time of the first skip request not handled yet, 0 if none
+	private final AtomicLong mySkipRequestTime = new AtomicLong();
+	private final ReadingStatistics myStatistics;
+
+	private final BroadcastReceiver myScreenReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			myMessageQueue.send(
+				Intent.ACTION_SCREEN_OFF.equals(intent.getAction()) ? SCREEN_OFF : SCREEN_ON, 0, null
+			);
+		}
+	};
+	private final boolean myDeferViewUpdates;
+
+	// the fields below are accessed on the engine thread only
+	private SpeechEngine myTTS;
+	private ParagraphTextReader myReader;
+	private ParagraphPrefetcher myPrefetcher;
+	private final ParagraphTextCache myTextCache;
+	private ParagraphTextCache.Builder myTextCacheBuilder;
+	private NonEmptyParagraphIndex myNonEmptyIndex;
+	private String myBookHash;
+	private final AudioCache myAudioCache;
+	// not null in pre-synthesized audio mode only
+	private AudioCachePlayer myAudioPlayer;
+	private Locale myLocale;
+	private PowerManager.WakeLock myWakeLock;
+
+	private boolean myIsInitialized;
+	private boolean myIsActive;
+	// playback is interrupted by FBReader service death
+	private boolean myIsWaitingForConnection;
+	private int myParagraphIndex = -1;
+	private int myParagraphsNumber;
+
+	// while the screen is off view updates are not sent, the last one is kept
+	private boolean myIsScreenOff;
+	private boolean myHasDeferredUpdate;
+	private TextPosition myDeferredPageStart;
+	private TextPosition myDeferredStart;
+	private TextPosition myDeferredEnd;
+
+	// ids of utterances passed to the engine, in queue order
+	private final LinkedHashMap<String,Utterance> myQueuedUtterances = new LinkedHashMap<String,Utterance>();
+	private int myUtteranceCounter;
+	private int myLastQueuedIndex;
+	private final int myQueueLength;
+
+	ReadingEngine(Context context, ApiClientImplementation api, SharedPreferences preferences, EngineQueue queue, Listener listener) {
+		myContext = context;
+		myApi = api;
+		myAsyncApi = new AsyncApi(api, 1);
+		myViewBatch = api.batch();
+		myPreferences = preferences;
+		myListener = listener;
+		myReader = new ParagraphTextReader(api);
+		myStatistics = new ReadingStatistics(myAsyncApi);
+		myTextCache = new ParagraphTextCache(
+			new File(context.getCacheDir(), "paragraphs"),
+			context.getSharedPreferences("FBReaderTTSCache", Context.MODE_PRIVATE),
+			ParagraphTextCache.DEFAULT_MAX_SIZE
+		);
+		// synthesizeToFile() is run by the TTS engine process, it cannot write to our private directories
+		final File externalCacheDir = preferences.getBoolean("audioCache", false)
+			? Compatibility.getExternalCacheDir(context) : null;
+		myAudioCache = externalCacheDir != null
+			? new AudioCache(new File(externalCacheDir, "audio"), AudioCache.DEFAULT_MAX_SIZE)
+			: null;
+		myQueueLength = Math.max(preferences.getInt("queueLength", DEFAULT_QUEUE_LENGTH), 1);
+
+		myMessageQueue = queue;
+		myMessageQueue.start(this);
+		// events are delivered on the engine thread
+		myApi.addListener(this, new Executor() {
+			public void execute(Runnable command) {
+				myMessageQueue.post(command);
+			}
+		});
+
+		myDeferViewUpdates = preferences.getBoolean("deferViewUpdates", true);
+		if (myDeferViewUpdates) {
+			myIsScreenOff = !Compatibility.isScreenOn(context);
+			final IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+			filter.addAction(Intent.ACTION_SCREEN_ON);
+			context.registerReceiver(myScreenReceiver, filter);
+		}
+	}
+
+	void initialize(SpeechEngine tts) {
+		myMessageQueue.send(INITIALIZE, 0, tts);
+	}
+
+	void play() {
+		myMessageQueue.remove(PAUSE);
+		myMessageQueue.remove(PLAY);
+		myMessageQueue.send(PLAY, 0, null);
+	}
+
+	void pause() {
+		myMessageQueue.remove(PLAY);
+		myMessageQueue.remove(PAUSE);
+		myMessageQueue.sendAtFront(PAUSE);
+	}
+
+	void next() {
+		skip(1);
+	}
+
+	void previous() {
+		skip(-1);
+	}
+
+	private void skip(int delta) {
+		myMessageQueue.remove(PLAY);
+		mySkipRequestTime.compareAndSet(0, SystemClock.elapsedRealtime());
+		myPendingSkip.addAndGet(delta);
+		if (!myMessageQueue.has(SKIP)) {
+			myMessageQueue.send(SKIP, 0, null);
+		}
+	}
+
+	void setSpeechRate(int progress) {
+		myMessageQueue.remove(SET_RATE);
+		myMessageQueue.send(SET_RATE, progress, null);
+	}
+
+	ReadingStatistics getStatistics() {
+		return myStatistics;
+	}
+
+	void onReconnected() {
+		myMessageQueue.send(RECONNECTED, 0, null);
+	}
+
+	void shutdown() {
+		myMessageQueue.clear();
+		myMessageQueue.send(SHUTDOWN, 0, null);
+	}
+
+	// implements ApiListener
+	public void onEvent(int event) {
+		// paragraphs number, language and caches belong to the old book
+		if (event == EVENT_BOOK_CHANGED && myIsInitialized) {
+			doInitialize(myTTS, myIsActive);
+		} else if (event == EVENT_PAGE_CHANGED) {
+			invalidateVisibleRange();
+		}
+	}
+
+	// implements SpeechEngine.Listener
+	public void onUtteranceCompleted(String uttId) {
+		myMessageQueue.send(UTTERANCE_COMPLETED, 0, uttId);
+	}
+
+	// implements EngineQueue.Callback
+	public void handleMessage(int what, int arg, Object obj) {
+		switch (what) {
+			case INITIALIZE:
+				doInitialize((SpeechEngine)obj, true);
+				break;
+			case PLAY:
+				if (myIsInitialized) {
+					startSpeaking();
+				}
+				break;
+			case PAUSE:
+				stopTalking();
+				break;
+			case SKIP:
+				doSkip(myPendingSkip.getAndSet(0));
+				break;
+			case SET_RATE:
+				doSetSpeechRate(arg);
+				break;
+			case UTTERANCE_COMPLETED:
+				if (myAudioPlayer == null || !myAudioPlayer.onUtteranceCompleted((String)obj)) {
+					doUtteranceCompleted((String)obj);
+				}
+				break;
+			case SHUTDOWN:
+				doShutdown();
+				break;
+			case RECONNECTED:
+				if (myIsWaitingForConnection) {
+					myMessageQueue.remove(RECONNECT_TIMEOUT);
+					Log.d("FBReaderTTS", "reconnected in " + myApi.getLastRecoveryTime() + " ms");
+					startSpeaking();
+				}
+				break;
+			case RECONNECT_TIMEOUT:
+				if (myIsWaitingForConnection) {
+					stopTalking();
+					myListener.onMessage(myContext.getText(R.string.connection_lost), false);
+				}
+				break;
+			case SCREEN_OFF:
+				myIsScreenOff = true;
+				break;
+			case SCREEN_ON:
+				myIsScreenOff = false;
+				if (myHasDeferredUpdate) {
+					myHasDeferredUpdate = false;
+					showArea(myDeferredPageStart, myDeferredStart, myDeferredEnd);
+					myDeferredPageStart = null;
+				}
+				break;
+			case TEXT_CACHE_BUILT:
+			{
+				final ParagraphTextCache.Book book = (ParagraphTextCache.Book)obj;
+				if (book.Hash.equals(myBookHash)) {
+					myReader.setBook(book);
+					saveNonEmptyIndex();
+				}
+				break;
+			}
+		}
+	}
+
+	private String getDisplayLanguage(Locale locale, String defaultValue) {
+		if (locale == null) {
+			return defaultValue;
+		}
+		String language = locale.getDisplayLanguage();
+		if (language != null) {
+			return language;
+		}
+		language = locale.getLanguage();
+		return language != null ? language : defaultValue;
+	}
+
+	// called on the first start, each time the panel is reopened while idle
+	// and when another book is opened in FBReader
+	private void doInitialize(SpeechEngine tts, boolean start) {
+		stopTalking();
+		myTTS = tts;
+		myTTS.setListener(this);
+
+		try {
+			myListener.onBookOpened(myApi.getBookTitle());
+
+			Locale locale = null;
+			final String languageCode = myApi.getBookLanguage();
+			if (languageCode == null || "other".equals(languageCode)) {
+				locale = Locale.getDefault();
+				if (!myTTS.isLanguageAvailable(locale)) {
+					locale = Locale.ENGLISH;
+				}
+				myListener.onMessage(
+					myContext.getText(R.string.language_is_not_set).toString()
+						.replace("%0", getDisplayLanguage(locale, "???")),
+					false
+				);
+			} else {
+				try {
+					locale = new Locale(languageCode);
+				} catch (Exception e) {
+				}
+				if (locale == null || !myTTS.isLanguageAvailable(locale)) {
+					final Locale originalLocale = locale;
+					locale = Locale.getDefault();
+					if (!myTTS.isLanguageAvailable(locale)) {
+						locale = Locale.ENGLISH;
+					}
+					myListener.onMessage(
+						myContext.getText(R.string.no_data_for_language).toString()
+							.replace("%0", getDisplayLanguage(originalLocale, languageCode))
+							.replace("%1", getDisplayLanguage(locale, "???")),
+						false
+					);
+				}
+			}
+			myTTS.setLanguage(locale);
+			myLocale = locale;
+			Locale bookLocale = locale;
+			if (languageCode != null && !"other".equals(languageCode)) {
+				try {
+					bookLocale = new Locale(languageCode);
+				} catch (Exception e) {
+				}
+			}
+
+			myParagraphIndex = myApi.getPageStart().ParagraphIndex;
+			myPageEndOfText = myApi.isPageEndOfText();
+			myHasDeferredUpdate = false;
+			myDeferredPageStart = null;
+			resetViewState();
+			myParagraphsNumber = myApi.getParagraphsNumber();
+			openTextCache();
+			myAudioPlayer = myAudioCache != null && myBookHash != null
+				? new AudioCachePlayer(myAudioCache, myTTS, myMessageQueue, myBookHash, this) : null;
+			doSetSpeechRate(myPreferences.getInt("rate", 100));
+			if (myPrefetcher != null) {
+				myPrefetcher.stop();
+			}
+			myPrefetcher = new ParagraphPrefetcher(
+				myReader,
+				myPreferences.getBoolean("splitSentences", false)
+					? new SentenceSegmenter(myApi, bookLocale) : null,
+				myParagraphsNumber,
+				myPreferences.getInt("prefetchDepth", ParagraphPrefetcher.DEFAULT_DEPTH)
+			);
+			myIsInitialized = true;
+			if (start) {
+				startSpeaking();
+			} else {
+				notifyStateChanged();
+			}
+		} catch (ApiException e) {
+			myIsInitialized = false;
+			notifyStateChanged();
+			myListener.onMessage(myContext.getText(R.string.initialization_error), true);
+			e.printStackTrace();
+		}
+	}
+
+	private void saveNonEmptyIndex() {
+		if (myBookHash != null && myNonEmptyIndex != null && myNonEmptyIndex.isModified()) {
+			myTextCache.storeIndex(myBookHash, myNonEmptyIndex);
+		}
+	}
+
+	private void openTextCache() {
+		if (myTextCacheBuilder != null) {
+			myTextCacheBuilder.cancel();
+			myTextCacheBuilder = null;
+		}
+		saveNonEmptyIndex();
+		myReader.setBook(null);
+		myNonEmptyIndex = new NonEmptyParagraphIndex(myParagraphsNumber);
+		myReader.setIndex(myNonEmptyIndex);
+		try {
+			final String path = myApi.getBookFilePath();
+			myBookHash = myApi.getBookHash();
+			final ParagraphTextCache.Book book = myTextCache.open(path, myBookHash, myParagraphsNumber);
+			if (myBookHash != null) {
+				myNonEmptyIndex = myTextCache.loadIndex(myBookHash, myParagraphsNumber);
+				myReader.setIndex(myNonEmptyIndex);
+			}
+			if (book != null) {
+				if (!myNonEmptyIndex.isComplete()) {
+					book.fillIndex(myNonEmptyIndex);
+				}
+				myReader.setBook(book);
+			} else if (myBookHash != null && myReader.isRangeSupported()) {
+				myTextCacheBuilder = new ParagraphTextCache.Builder(
+					myTextCache, myApi, myNonEmptyIndex, path, myBookHash, myParagraphsNumber,
+					new ParagraphTextCache.Builder.Listener() {
+						public void onBuilt(ParagraphTextCache.Book book) {
+							myMessageQueue.send(TEXT_CACHE_BUILT, 0, book);
+						}
+					}
+				);
+				myTextCacheBuilder.start();
+			}
+		} catch (ApiException e) {
+			// the book is read without the cache
+			myBookHash = null;
+			e.printStackTrace();
+		}
+	}
+
+	private void doSetSpeechRate(int progress) {
+		if (myTTS != null) {
+			myTTS.setSpeechRate((float)Math.pow(2.0, (progress - 100.0) / 75));
+		}
+		if (myAudioPlayer != null) {
+			myAudioPlayer.setVoice(myLocale + "@" + progress);
+		}
+	}
+
+	private void doSkip(int delta) {
+		final long requestTime = mySkipRequestTime.getAndSet(0);
+		if (!myIsInitialized || delta == 0) {
+			return;
+		}
+		stopTalking();
+		// the target paragraph is resolved first, the view is updated once
+		try {
+			if (delta > 0) {
+				for (; delta > 0 && myParagraphIndex < myParagraphsNumber; --delta) {
+					++myParagraphIndex;
+					final int next = myNonEmptyIndex.next(myParagraphIndex);
+					if (next != NonEmptyParagraphIndex.UNKNOWN) {
+						myParagraphIndex = next;
+					} else {
+						findNextParagraph();
+					}
+				}
+			} else {
+				for (; delta < 0; ++delta) {
+					findPreviousParagraph();
+				}
+			}
+			// the page is turned (in both directions) and the paragraph is highlighted in one batch
+			showNextParagraph();
+		} catch (ApiException e) {
+			e.printStackTrace();
+		}
+		// with the screen off the view update is deferred, there is nothing to measure
+		if (requestTime != 0 && !myIsScreenOff) {
+			myStatistics.onSkipDone(requestTime);
+		}
+		notifyStateChanged();
+	}
+
+	private void doUtteranceCompleted(String uttId) {
+		final Utterance completed = myIsActive ? myQueuedUtterances.remove(uttId) : null;
+		if (completed == null) {
+			// flushed by stop() or queued before the last restart
+			return;
+		}
+
+		// with nothing queued the engine is silent until fillQueue() passes the next utterance
+		final long silenceStart = myQueuedUtterances.isEmpty() ? SystemClock.elapsedRealtime() : 0;
+		final boolean filled = fillQueue();
+		if (myAudioPlayer != null) {
+			myAudioPlayer.update(myQueuedUtterances);
+		}
+		final Iterator<Utterance> it = myQueuedUtterances.values().iterator();
+		if (it.hasNext()) {
+			final Utterance next = it.next();
+			if (next.ParagraphIndex != completed.ParagraphIndex) {
+				myStatistics.onParagraphTransition(silenceStart != 0 ? SystemClock.elapsedRealtime() - silenceStart : 0);
+			}
+			showUtterance(next);
+		} else if (!filled && !myApi.isConnected()) {
+			waitForConnection();
+		} else {
+			myParagraphIndex = myParagraphsNumber;
+			gotoNextParagraph();
+			stopTalking();
+		}
+	}
+
+	// implements AudioCachePlayer.Listener
+	public void onPlayed(String id) {
+		doUtteranceCompleted(id);
+	}
+
+	private void doShutdown() {
+		stopTalking();
+		if (myTextCacheBuilder != null) {
+			myTextCacheBuilder.cancel();
+			myTextCacheBuilder = null;
+		}
+		saveNonEmptyIndex();
+		if (myPrefetcher != null) {
+			myPrefetcher.stop();
+			Log.d(
+				"FBReaderTTS",
+				"prefetch hits: " + myPrefetcher.getHitCount() +
+				", misses: " + myPrefetcher.getMissCount()
+			);
+			myPrefetcher = null;
+		}
+		if (myDeferViewUpdates) {
+			myContext.unregisterReceiver(myScreenReceiver);
+		}
+		myAsyncApi.clearHighlighting();
+		myAsyncApi.shutdown(1000);
+		myApi.removeListener(this);
+		Log.d("FBReaderTTS", "event dispatch: " + myApi.getDispatchStats());
+		myApi.disconnect();
+		if (myTTS != null) {
+			myTTS.shutdown();
+			myTTS = null;
+		}
+		myAudioPlayer = null;
+		myIsInitialized = false;
+		myMessageQueue.quit();
+	}
+
+	private void notifyStateChanged() {
+		myListener.onStateChanged(
+			myIsActive,
+			myIsInitialized,
+			myIsInitialized && myParagraphIndex < myParagraphsNumber
+		);
+	}
+
+	private void setActive(boolean active) {
+		myIsActive = active;
+		notifyStateChanged();
+
+		if (active) {
+			if (myWakeLock == null) {
+				myWakeLock =
+					((PowerManager)myContext.getSystemService(Context.POWER_SERVICE))
+						.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "FBReader TTS plugin");
+				myWakeLock.acquire();
+			}
+		} else {
+			if (myWakeLock != null) {
+				myWakeLock.release();
+				myWakeLock = null;
+			}
+		}
+	}
+
+	/*
+	 * Keeps the engine active while the client reconnects;
+	 * RECONNECTED resumes from the first paragraph not spoken yet.
+	 */
+	private void waitForConnection() {
+		myParagraphIndex = myLastQueuedIndex + 1;
+		myIsWaitingForConnection = true;
+		myMessageQueue.sendDelayed(RECONNECT_TIMEOUT, RECONNECT_BUDGET);
+	}
+
+	private void stopTalking() {
+		myIsWaitingForConnection = false;
+		myMessageQueue.remove(RECONNECT_TIMEOUT);
+		setActive(false);
+		myQueuedUtterances.clear();
+		if (myAudioPlayer != null) {
+			myAudioPlayer.stop();
+		} else if (myTTS != null && myTTS.isSpeaking()) {
+			myTTS.stop();
+		}
+	}
+
+	private void startSpeaking() {
+		stopTalking();
+		final ParagraphPrefetcher.Paragraph paragraph = gotoNextParagraph();
+		if (paragraph == null) {
+			return;
+		}
+		setActive(true);
+		speakParagraph(paragraph);
+		fillQueue();
+		if (myAudioPlayer != null) {
+			myAudioPlayer.update(myQueuedUtterances);
+		}
+		StartupTracer.getInstance(myPreferences).mark(StartupTracer.FIRST_SPEECH);
+		if (paragraph.Utterances.size() > 1) {
+			showUtterance(paragraph.Utterances.get(0));
+		}
+	}
+
+	// keeps up to myQueueLength paragraphs queued in the engine, returns false on API failure
+	private boolean fillQueue() {
+		try {
+			while (myQueuedUtterances.size() < myQueueLength &&
+				   myLastQueuedIndex + 1 < myParagraphsNumber) {
+				final ParagraphPrefetcher.Paragraph paragraph =
+					myPrefetcher.poll(myLastQueuedIndex + 1);
+				if (paragraph == null) {
+					break;
+				}
+				speakParagraph(paragraph);
+			}
+			return true;
+		} catch (ApiException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	// in pre-synthesized audio mode utterances are only queued, AudioCachePlayer plays them
+	private void speakParagraph(ParagraphPrefetcher.Paragraph paragraph) {
+		for (Utterance utterance : paragraph.Utterances) {
+			final String id = UTTERANCE_ID + (myUtteranceCounter++);
+			if (myAudioPlayer != null) {
+				myQueuedUtterances.put(id, utterance);
+				continue;
+			}
+			final boolean flush = myQueuedUtterances.isEmpty();
+			myQueuedUtterances.put(id, utterance);
+			myTTS.speak(utterance.Text, flush, id);
+		}
+		myLastQueuedIndex = paragraph.Index;
+	}
+
+	private static int compare(TextPosition p0, TextPosition p1) {
+		if (p0.ParagraphIndex != p1.ParagraphIndex) {
+			return p0.ParagraphIndex < p1.ParagraphIndex ? -1 : 1;
+		}
+		if (p0.ElementIndex != p1.ElementIndex) {
+			return p0.ElementIndex < p1.ElementIndex ? -1 : 1;
+		}
+		if (p0.CharIndex != p1.CharIndex) {
+			return p0.CharIndex < p1.CharIndex ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private static boolean equal(TextPosition p0, TextPosition p1) {
+		return p0 == null ? p1 == null : p1 != null && compare(p0, p1) == 0;
+	}
+
+	// the view may be changed by the previous book or by another client
+	private void resetViewState() {
+		myAsyncApi.post(new AsyncApi.Call<Object>() {
+			public Object call(Api api) {
+				myVisibleStart = null;
+				myVisibleEnd = null;
+				myIsHighlightingKnown = false;
+				return null;
+			}
+		});
+	}
+
+	private void invalidateVisibleRange() {
+		myAsyncApi.post(new AsyncApi.Call<Object>() {
+			public Object call(Api api) {
+				myVisibleStart = null;
+				return null;
+			}
+		});
+	}
+
+	/*
+	 * Called on the view update thread. Older FBReader versions send no page
+	 * events, a page turned by the user is noticed after the next turn only.
+	 */
+	private void updateVisibleRange() {
+		if (myVisibleStart != null) {
+			return;
+		}
+		try {
+			// served by the state cache until FBReader reports a page change
+			myVisibleEnd = myApi.getPageEnd();
+			myVisibleStart = myApi.getPageStart();
+		} catch (ApiException e) {
+			// the page is turned as if it was not visible
+			e.printStackTrace();
+		}
+	}
+
+	private boolean isVisible(TextPosition start, TextPosition end) {
+		return
+			myVisibleStart != null &&
+			compare(myVisibleStart, start) <= 0 &&
+			compare(end, myVisibleEnd) <= 0;
+	}
+
+	// going back from the last page is allowed
+	private boolean isOnLastPage(TextPosition position) {
+		return myPageEndOfText && (myVisibleStart == null || compare(myVisibleStart, position) <= 0);
+	}
+
+	/*
+	 * Turns the page to pageStart (if not null, the area from start to end
+	 * is not on the page and pageStart is not on the last page) and
+	 * highlights the area (clears highlighting if start is null) in one
+	 * batch transaction; nothing is sent if neither the page nor
+	 * the highlighting changes.
+	 * The end of text flag after a turn is requested in the same batch;
+	 * the page range is requested when the next turn is considered.
+	 * While the screen is off the update is only stored; the last stored
+	 * update (with the last requested page start) is sent on screen on.
+	 */
+	private void showArea(TextPosition pageStart, TextPosition start, TextPosition end) {
+		if (myIsScreenOff) {
+			myHasDeferredUpdate = true;
+			if (pageStart != null) {
+				myDeferredPageStart = pageStart;
+			}
+			myDeferredStart = start;
+			myDeferredEnd = end;
+			return;
+		}
+		final ViewUpdate update;
+		synchronized (myFreeViewUpdates) {
+			final int size = myFreeViewUpdates.size();
+			update = size > 0 ? myFreeViewUpdates.remove(size - 1) : new ViewUpdate();
+		}
+		update.PageStart = pageStart;
+		update.Start = start;
+		update.End = end;
+		myAsyncApi.post(update);
+	}
+
+	// a view update posted by showArea(), returned to myFreeViewUpdates when it has run
+	private final class ViewUpdate implements AsyncApi.Call<Object> {
+		TextPosition PageStart;
+		TextPosition Start;
+		TextPosition End;
+
+		public Object call(Api api) throws ApiException {
+			try {
+				doShowArea(PageStart, Start, End);
+			} finally {
+				PageStart = null;
+				Start = null;
+				End = null;
+				synchronized (myFreeViewUpdates) {
+					myFreeViewUpdates.add(this);
+				}
+			}
+			return null;
+		}
+	}
+
+	// called on the view update thread
+	private void doShowArea(TextPosition pageStart, TextPosition start, TextPosition end) throws ApiException {
+		if (pageStart != null) {
+			updateVisibleRange();
+		}
+		final boolean turn = pageStart != null && !isOnLastPage(pageStart) &&
+			!(start != null ? isVisible(start, end) : isVisible(pageStart, pageStart));
+		final boolean highlight = !myIsHighlightingKnown ||
+			!equal(start, myHighlightedStart) ||
+			(start != null && !equal(end, myHighlightedEnd));
+		if (!turn && !highlight) {
+			return;
+		}
+
+		final ApiClientImplementation.Batch batch = myViewBatch;
+		batch.clear();
+		if (turn) {
+			batch.setPageStart(pageStart);
+		}
+		final int highlighting = batch.size();
+		if (highlight) {
+			if (start != null) {
+				batch.highlightArea(start, end);
+			} else {
+				batch.clearHighlighting();
+			}
+		}
+		final int endOfText = batch.size();
+		if (turn) {
+			batch.isPageEndOfText();
+			myVisibleStart = null;
+		}
+
+		if (highlight) {
+			myIsHighlightingKnown = false;
+		}
+		final ApiClientImplementation.Results results = batch.execute();
+		if (turn) {
+			myPageEndOfText = results.getBoolean(endOfText);
+		}
+		if (highlight) {
+			results.check(highlighting);
+			myHighlightedStart = start;
+			myHighlightedEnd = end;
+			myIsHighlightingKnown = true;
+		}
+	}
+
+	private void highlightParagraph() {
+		if (0 <= myParagraphIndex && myParagraphIndex < myParagraphsNumber) {
+			showArea(
+				null,
+				TextPosition.paragraphStart(myParagraphIndex),
+				TextPosition.paragraphEnd(myParagraphIndex)
+			);
+		} else {
+			showArea(null, null, null);
+		}
+	}
+
+	private void showParagraph() {
+		showArea(
+			TextPosition.paragraphStart(myParagraphIndex),
+			TextPosition.paragraphStart(myParagraphIndex),
+			TextPosition.paragraphEnd(myParagraphIndex)
+		);
+	}
+
+	// a new paragraph is shown from its start, a later sentence from the sentence start
+	private void showUtterance(Utterance utterance) {
+		TextPosition pageStart = utterance.Start;
+		if (utterance.ParagraphIndex != myParagraphIndex) {
+			myStatistics.onParagraphStarted();
+			myParagraphIndex = utterance.ParagraphIndex;
+			pageStart = TextPosition.paragraphStart(myParagraphIndex);
+		}
+		showArea(pageStart, utterance.Start, utterance.End);
+	}
+
+	private void findPreviousParagraph() throws ApiException {
+		final int previous = myNonEmptyIndex.previous(myParagraphIndex);
+		if (previous != NonEmptyParagraphIndex.UNKNOWN) {
+			if (previous != NonEmptyParagraphIndex.NONE) {
+				myParagraphIndex = previous;
+			}
+			return;
+		}
+		for (int end = myParagraphIndex; end > 0; ) {
+			final int start = Math.max(0, end - myReader.rangeSize());
+			final SortedMap<Integer,String> texts = myReader.read(start, end - start);
+			if (!texts.isEmpty()) {
+				myParagraphIndex = texts.lastKey();
+				break;
+			}
+			end = start;
+		}
+	}
+
+	private ParagraphPrefetcher.Paragraph findNextParagraph() throws ApiException {
+		final ParagraphPrefetcher.Paragraph paragraph = myPrefetcher.poll(myParagraphIndex);
+		myParagraphIndex = paragraph != null ? paragraph.Index : myParagraphsNumber;
+		return paragraph;
+	}
+
+	private void showNextParagraph() {
+		if (myParagraphIndex < myParagraphsNumber) {
+			showParagraph();
+		} else {
+			highlightParagraph();
+		}
+	}
+
+	private ParagraphPrefetcher.Paragraph gotoNextParagraph() {
+		try {
+			final ParagraphPrefetcher.Paragraph paragraph = findNextParagraph();
+			showNextParagraph();
+			notifyStateChanged();
+			return paragraph;
+		} catch (ApiException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
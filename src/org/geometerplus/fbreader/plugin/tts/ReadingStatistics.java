@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.SystemClock;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Reading loop metrics: the silence between paragraphs caused by an empty
+ * utterance queue, FBReader API calls made by the engine and view update
+ * threads per spoken paragraph and the time from a skip request to the
+ * completed view update. Values are recorded on the engine and view update
+ * threads and read from any thread.
+ * Histogram bucket i counts values below 2^i milliseconds, the last bucket
+ * counts the rest.
+ */
+final class ReadingStatistics {
+	private static final int BUCKETS = 12;
+
+	private static final class Histogram {
+		// count, total, max, buckets
+		private final AtomicLongArray myCounters = new AtomicLongArray(3 + BUCKETS);
+
+		void record(long value) {
+			myCounters.incrementAndGet(0);
+			myCounters.addAndGet(1, value);
+			if (value > myCounters.get(2)) {
+				myCounters.set(2, value);
+			}
+			int bucket = 0;
+			for (long bound = 1; bucket < BUCKETS - 1 && value >= bound; bound <<= 1) {
+				++bucket;
+			}
+			myCounters.incrementAndGet(3 + bucket);
+		}
+
+		long count() {
+			return myCounters.get(0);
+		}
+
+		private String percentile(long count, int percent) {
+			final long rank = (count * percent + 99) / 100;
+			long sum = 0;
+			for (int i = 0; i < BUCKETS - 1; ++i) {
+				sum += myCounters.get(3 + i);
+				if (sum >= rank) {
+					return "<" + (1L << i);
+				}
+			}
+			return ">" + (1L << (BUCKETS - 2));
+		}
+
+		@Override
+		public String toString() {
+			final long count = myCounters.get(0);
+			if (count == 0) {
+				return "no data";
+			}
+			return
+				"count " + count +
+				", avg " + myCounters.get(1) / count +
+				", p50 " + percentile(count, 50) +
+				", p90 " + percentile(count, 90) +
+				", max " + myCounters.get(2);
+		}
+	}
+
+	private final Histogram myUnderruns = new Histogram();
+	private final Histogram mySkipLatencies = new Histogram();
+	private final AtomicLong myTransitionsCount = new AtomicLong();
+	private final AtomicLong myParagraphsCount = new AtomicLong();
+	private final AtomicLong myParagraphCalls = new AtomicLong();
+	private final AtomicLong myMaxCallsPerParagraph = new AtomicLong();
+	// view update queue of the engine
+	private final AsyncApi myViewQueue;
+	// engine thread only
+	private long myEngineCallCount;
+	// engine calls not added to a paragraph yet
+	private final AtomicLong myPendingEngineCalls = new AtomicLong();
+	// posted for each paragraph, the same object every time
+	private final AsyncApi.Call<Object> myParagraphCall = new AsyncApi.Call<Object>() {
+		public Object call(Api api) {
+			final long viewCalls = ApiStatistics.getThreadCallCount();
+			final long delta = myPendingEngineCalls.getAndSet(0) + viewCalls - myViewCallCount;
+			myViewCallCount = viewCalls;
+			myParagraphsCount.incrementAndGet();
+			myParagraphCalls.addAndGet(delta);
+			if (delta > myMaxCallsPerParagraph.get()) {
+				myMaxCallsPerParagraph.set(delta);
+			}
+			return null;
+		}
+	};
+	// view update thread only
+	private long myViewCallCount;
+
+	ReadingStatistics(AsyncApi viewQueue) {
+		myViewQueue = viewQueue;
+	}
+
+	/*
+	 * Called on a paragraph to paragraph transition with the time the engine
+	 * had nothing queued, in milliseconds, 0 if the next utterance was queued
+	 * in advance. The engine's own start-up time for a queued utterance is
+	 * not reported by TextToSpeech and is not included.
+	 */
+	void onParagraphTransition(long silence) {
+		myTransitionsCount.incrementAndGet();
+		if (silence > 0) {
+			myUnderruns.record(silence);
+		}
+	}
+
+	/*
+	 * Called on the engine thread when the next paragraph is shown.
+	 * The calls made on the engine thread since the previous paragraph are
+	 * added to the view update calls posted for it; calls of other threads
+	 * (prefetcher, text cache builder, export) are not counted.
+	 * If the view update queue lags behind, the engine calls of several
+	 * paragraphs may be added to the first of them.
+	 */
+	void onParagraphStarted() {
+		final long engineCalls = ApiStatistics.getThreadCallCount();
+		myPendingEngineCalls.addAndGet(engineCalls - myEngineCallCount);
+		myEngineCallCount = engineCalls;
+		// runs after the view updates posted for the previous paragraph
+		myViewQueue.post(myParagraphCall);
+	}
+
+	/*
+	 * Called on the engine thread after the view update for a skip is posted,
+	 * the latency is recorded when the view update is completed.
+	 */
+	void onSkipDone(final long requestTime) {
+		myViewQueue.post(new AsyncApi.Call<Object>() {
+			public Object call(Api api) {
+				mySkipLatencies.record(SystemClock.elapsedRealtime() - requestTime);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		final long paragraphs = myParagraphsCount.get();
+		return
+			"queue underruns: " + myUnderruns.count() + " of " + myTransitionsCount.get() + " paragraph transitions\n" +
+			"underrun silence, ms: " + myUnderruns + "\n" +
+			"skip latency, ms: " + mySkipLatencies + "\n" +
+			"api calls per paragraph: " + (paragraphs > 0
+				? "count " + paragraphs +
+					", avg " + (float)myParagraphCalls.get() / paragraphs +
+					", max " + myMaxCallsPerParagraph.get()
+				: "no data");
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.text.BreakIterator;
+import java.util.*;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Splits paragraphs into sentence-sized utterances, so the engine starts
+ * speaking long paragraphs sooner. Sentences are mapped to text elements
+ * through the paragraph words, so that the highlight covers one sentence.
+ * Not thread-safe, the instance is used by the prefetcher thread only.
+ */
+class SentenceSegmenter {
+	private final Api myApi;
+	private final BreakIterator myIterator;
+
+	SentenceSegmenter(Api api, Locale locale) {
+		myApi = api;
+		myIterator = BreakIterator.getSentenceInstance(locale);
+	}
+
+	List<Utterance> split(int paragraphIndex, String text) throws ApiException {
+		final ArrayList<Integer> bounds = new ArrayList<Integer>();
+		myIterator.setText(text);
+		for (int b = myIterator.first(); b != BreakIterator.DONE; b = myIterator.next()) {
+			bounds.add(b);
+		}
+		if (bounds.size() <= 2) {
+			return Collections.singletonList(new Utterance(paragraphIndex, text));
+		}
+
+		final String[] words = myApi.getParagraphWordsArray(paragraphIndex);
+		final int[] indices = myApi.getParagraphWordIndicesArray(paragraphIndex);
+		final int[] offsets = wordOffsets(text, words);
+		if (offsets == null || indices.length != words.length) {
+			return Collections.singletonList(new Utterance(paragraphIndex, text));
+		}
+
+		final ArrayList<Utterance> utterances = new ArrayList<Utterance>(bounds.size() - 1);
+		int word = 0;
+		for (int i = 1; i < bounds.size(); ++i) {
+			final int start = bounds.get(i - 1);
+			final int end = bounds.get(i);
+			final String sentence = text.substring(start, end).trim();
+			if (sentence.length() == 0) {
+				continue;
+			}
+			final int first = word;
+			while (word < offsets.length && offsets[word] < end) {
+				++word;
+			}
+			if (first == word) {
+				utterances.add(new Utterance(paragraphIndex, sentence));
+			} else {
+				final int last = word - 1;
+				utterances.add(new Utterance(
+					paragraphIndex,
+					sentence,
+					new TextPosition(paragraphIndex, indices[first], 0),
+					new TextPosition(paragraphIndex, indices[last], words[last].length())
+				));
+			}
+		}
+		return utterances;
+	}
+
+	// offsets of the words in the paragraph text, or null if the words do not match the text
+	private static int[] wordOffsets(String text, String[] words) {
+		final int[] offsets = new int[words.length];
+		int cursor = 0;
+		int index = 0;
+		for (String w : words) {
+			final int offset = text.indexOf(w, cursor);
+			if (offset == -1) {
+				return null;
+			}
+			offsets[index++] = offset;
+			cursor = offset + w.length();
+		}
+		return offsets;
+	}
+}
@@ -19,35 +19,43 @@
 
 package org.geometerplus.fbreader.plugin.tts;
 
-import java.util.HashMap;
-import java.util.Locale;
-
 import android.app.Activity;
 import android.content.*;
 import android.os.Bundle;
-import android.os.PowerManager;
+import android.os.IBinder;
 import android.speech.tts.TextToSpeech;
-import android.telephony.PhoneStateListener;
-import android.telephony.TelephonyManager;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
 import android.widget.SeekBar;
 
 import org.geometerplus.android.fbreader.api.*;
 
-public class SpeakActivity extends Activity implements TextToSpeech.OnInitListener, TextToSpeech.OnUtteranceCompletedListener, ApiClientImplementation.ConnectionListener {
-	private ApiClientImplementation myApi;
-
-	private static final String UTTERANCE_ID = "FBReaderTTSPlugin";
+public class SpeakActivity extends Activity implements SpeakService.Listener {
+	private static final int MENU_EXPORT = 1;
+	private static final int MENU_STATISTICS = 2;
 
-	private TextToSpeech myTTS;
+	private volatile SpeakService myService;
+	private String myPrefix;
 
 	private SharedPreferences myPreferences;
 
-	private int myParagraphIndex = -1;
-	private int myParagraphsNumber;
+	private final ServiceConnection myConnection = new ServiceConnection() {
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			myService = ((SpeakService.LocalBinder)binder).getService();
+			myService.attach(SpeakActivity.this, myPrefix);
+		}
+
+		public void onServiceDisconnected(ComponentName name) {
+			myService = null;
+		}
+	};
 
-	private boolean myIsActive = false;
+	private ReadingEngine getEngine() {
+		final SpeakService service = myService;
+		return service != null ? service.getEngine() : null;
+	}
 
 	private void setListener(int id, View.OnClickListener listener) {
 		findViewById(id).setOnClickListener(listener);
@@ -58,21 +66,23 @@ public class SpeakActivity extends Activity implements TextToSpeech.OnInitListen
 		super.onCreate(savedInstanceState);
 
 		myPreferences = getSharedPreferences("FBReaderTTS", MODE_PRIVATE);
+		StartupTracer.getInstance(myPreferences).begin();
 
 		setContentView(R.layout.control_panel);
 
 		setListener(R.id.button_previous_paragraph, new View.OnClickListener() {
 			public void onClick(View v) {
-				stopTalking();
-				gotoPreviousParagraph();
+				final ReadingEngine engine = getEngine();
+				if (engine != null) {
+					engine.previous();
+				}
 			}
 		});
 		setListener(R.id.button_next_paragraph, new View.OnClickListener() {
 			public void onClick(View v) {
-				stopTalking();
-				if (myParagraphIndex < myParagraphsNumber) {
-					++myParagraphIndex;
-					gotoNextParagraph();
+				final ReadingEngine engine = getEngine();
+				if (engine != null) {
+					engine.next();
 				}
 			}
 		});
@@ -84,13 +94,18 @@ public class SpeakActivity extends Activity implements TextToSpeech.OnInitListen
 		});
 		setListener(R.id.button_pause, new View.OnClickListener() {
 			public void onClick(View v) {
-				stopTalking();
+				final ReadingEngine engine = getEngine();
+				if (engine != null) {
+					engine.pause();
+				}
 			}
 		});
 		setListener(R.id.button_play, new View.OnClickListener() {
 			public void onClick(View v) {
-				setActive(true);
-				speakString(gotoNextParagraph());
+				final ReadingEngine engine = getEngine();
+				if (engine != null) {
+					engine.play();
+				}
 			}
 		});
 		final SeekBar speedControl = (SeekBar)findViewById(R.id.speed_control);
@@ -101,8 +116,9 @@ public class SpeakActivity extends Activity implements TextToSpeech.OnInitListen
 			private SharedPreferences.Editor myEditor = myPreferences.edit();
 
 			public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-				if (myTTS != null) {
-					setSpeechRate(progress);
+				final ReadingEngine engine = getEngine();
+				if (engine != null) {
+					engine.setSpeechRate(progress);
 					myEditor.putInt("rate", progress);
 				}
 			}
@@ -115,50 +131,32 @@ public class SpeakActivity extends Activity implements TextToSpeech.OnInitListen
 			}
 		});
 
-		((TelephonyManager)getSystemService(TELEPHONY_SERVICE)).listen(
-			new PhoneStateListener() {
-				public void onCallStateChanged(int state, String incomingNumber) {
-					if (state == TelephonyManager.CALL_STATE_RINGING) {
-						stopTalking();
-					}
-				}
-			},
-			PhoneStateListener.LISTEN_CALL_STATE
-		);
-
-		setActive(false);
-		setActionsEnabled(false);
+		onStateChanged(false, false, false);
 
-		String prefix = ApiClientImplementation.FBREADER_PREFIX;
+		myPrefix = ApiClientImplementation.FBREADER_PREFIX;
 		final Intent intent = getIntent();
 		if (intent != null) {
 			final String action = getIntent().getAction();
 			if (action != null && action.endsWith(PluginApi.ACTION_RUN_POSTFIX)) {
-				prefix = action.substring(0, action.length() - PluginApi.ACTION_RUN_POSTFIX.length());
+				myPrefix = action.substring(0, action.length() - PluginApi.ACTION_RUN_POSTFIX.length());
 			}
 		}
-		myApi = new ApiClientImplementation(this, this, prefix);
-		try {
-			startActivityForResult(
-				new Intent(TextToSpeech.Engine.ACTION_CHECK_TTS_DATA), 0
-			);
-		} catch (ActivityNotFoundException e) {
-			showErrorMessage(getText(R.string.no_tts_installed), true);
-		}
 
 		setTitle(R.string.initializing);
-	}
 
-	private void setSpeechRate(int progress) {
-		if (myTTS != null) {
-			myTTS.setSpeechRate((float)Math.pow(2.0, (progress - 100.0) / 75));
-		}
+		final Intent serviceIntent = new Intent(this, SpeakService.class);
+		startService(serviceIntent.putExtra(SpeakService.PREFIX_KEY, myPrefix));
+		bindService(serviceIntent, myConnection, BIND_AUTO_CREATE);
 	}
 
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+		StartupTracer.getInstance(myPreferences).mark(StartupTracer.VOICE_CHECK_DONE);
 		if (resultCode == TextToSpeech.Engine.CHECK_VOICE_DATA_PASS) {
-			myTTS = new TextToSpeech(this, this);
+			final SpeakService service = myService;
+			if (service != null) {
+				service.onVoiceDataCheckPassed();
+			}
 		} else {
 			try {
 				startActivity(new Intent(TextToSpeech.Engine.ACTION_INSTALL_TTS_DATA));
@@ -169,262 +167,108 @@ public class SpeakActivity extends Activity implements TextToSpeech.OnInitListen
 	}
 
 	@Override
-	protected void onResume() {
-		myApi.connect();
-		super.onResume();
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		menu.clear();
+		final SpeakService service = myService;
+		if (service != null) {
+			menu.add(0, MENU_EXPORT, 0,
+				service.isExporting() ? R.string.cancel_export_menu_item : R.string.export_menu_item
+			);
+			menu.add(0, MENU_STATISTICS, 0, R.string.statistics_menu_item);
+		}
+		return super.onPrepareOptionsMenu(menu);
 	}
 
 	@Override
-	protected void onPause() {
-		super.onPause();
+	public boolean onOptionsItemSelected(MenuItem item) {
+		final SpeakService service = myService;
+		if (item.getItemId() == MENU_EXPORT && service != null) {
+			if (service.isExporting()) {
+				service.cancelExport();
+			} else {
+				service.exportAudiobook();
+			}
+			return true;
+		}
+		if (item.getItemId() == MENU_STATISTICS && service != null) {
+			startActivity(new Intent(this, StatisticsActivity.class).putExtra(
+				StatisticsActivity.REPORT_KEY, service.getStatisticsReport()
+			));
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
 	}
 
 	private void switchOff() {
-		stopTalking();
-		try {
-			myApi.clearHighlighting();
-		} catch (ApiException e) {
-			e.printStackTrace();
-		}
-		myApi.disconnect();
-		if (myTTS != null) {
-			myTTS.shutdown();
-			myTTS = null;
+		final SpeakService service = myService;
+		if (service != null) {
+			service.shutdown();
 		}
 	}
 
 	@Override
 	protected void onDestroy() {
-		switchOff();
-		super.onDestroy();
-	}
-
-	private volatile int myInitializationStatus;
-	private static int API_INITIALIZED = 1;
-	private static int TTS_INITIALIZED = 2;
-	private static int FULLY_INITIALIZED = API_INITIALIZED | TTS_INITIALIZED;
-
-	// implements ApiClientImplementation.ConnectionListener
-	public void onConnected() {
-		if (myInitializationStatus != FULLY_INITIALIZED) {
-			myInitializationStatus |= API_INITIALIZED;
-			if (myInitializationStatus == FULLY_INITIALIZED) {
-				onInitializationCompleted();
-			}
-		}
-	}
-
-	// implements TextToSpeech.OnInitListener
-	public void onInit(int status) {
-		if (myInitializationStatus != FULLY_INITIALIZED) {
-			myInitializationStatus |= TTS_INITIALIZED;
-			if (myInitializationStatus == FULLY_INITIALIZED) {
-				onInitializationCompleted();
-			}
+		final SpeakService service = myService;
+		if (service != null) {
+			service.detach(this);
 		}
+		unbindService(myConnection);
+		myService = null;
+		super.onDestroy();
 	}
 
-	private void setActionsEnabled(final boolean enabled) {
+	// implements SpeakService.Listener
+	public void onVoiceDataCheckRequired() {
+		StartupTracer.getInstance(myPreferences).mark(StartupTracer.VOICE_CHECK_STARTED);
 		runOnUiThread(new Runnable() {
 			public void run() {
-				findViewById(R.id.button_previous_paragraph).setEnabled(enabled);
-				findViewById(R.id.button_next_paragraph).setEnabled(enabled);
-				findViewById(R.id.button_play).setEnabled(enabled);
-			}
-		});
-	}
-
-	private String getDisplayLanguage(Locale locale, String defaultValue) {
-		if (locale == null) {
-			return defaultValue;
-		}
-		String language = locale.getDisplayLanguage();
-		if (language != null) {
-			return language;
-		}
-		language = locale.getLanguage();
-		return language != null ? language : defaultValue;
-	}
-
-	private void onInitializationCompleted() {
-		myTTS.setOnUtteranceCompletedListener(this);
-
-		try {
-			setTitle(myApi.getBookTitle());
-
-			Locale locale = null;
-			final String languageCode = myApi.getBookLanguage();
-			if (languageCode == null || "other".equals(languageCode)) {
-				locale = Locale.getDefault();
-				if (myTTS.isLanguageAvailable(locale) < 0) {
-					locale = Locale.ENGLISH;
-				}
-				showErrorMessage(
-					getText(R.string.language_is_not_set).toString()
-						.replace("%0", getDisplayLanguage(locale, "???")),
-					false
-				);
-			} else {
 				try {
-					locale = new Locale(languageCode);
-				} catch (Exception e) {
-				}
-				if (locale == null || myTTS.isLanguageAvailable(locale) < 0) {
-					final Locale originalLocale = locale;
-					locale = Locale.getDefault();
-					if (myTTS.isLanguageAvailable(locale) < 0) {
-						locale = Locale.ENGLISH;
-					}
-					showErrorMessage(
-						getText(R.string.no_data_for_language).toString()
-							.replace("%0", getDisplayLanguage(originalLocale, languageCode))
-							.replace("%1", getDisplayLanguage(locale, "???")),
-						false
+					startActivityForResult(
+						new Intent(TextToSpeech.Engine.ACTION_CHECK_TTS_DATA), 0
 					);
+				} catch (ActivityNotFoundException e) {
+					showErrorMessage(getText(R.string.no_tts_installed), true);
 				}
 			}
-			myTTS.setLanguage(locale);
-
-			final SeekBar speedControl = (SeekBar)findViewById(R.id.speed_control);
-			speedControl.setEnabled(true);
-			setSpeechRate(speedControl.getProgress());
-
-			myParagraphIndex = myApi.getPageStart().ParagraphIndex;
-			myParagraphsNumber = myApi.getParagraphsNumber();
-			setActionsEnabled(true);
-			setActive(true);
-			speakString(gotoNextParagraph());
-		} catch (ApiException e) {
-			setActionsEnabled(false);
-			showErrorMessage(getText(R.string.initialization_error), true);
-			e.printStackTrace();
-		}
-	}
-
-	@Override
-	public void onUtteranceCompleted(String uttId) {
-		if (myIsActive && UTTERANCE_ID.equals(uttId)) {
-			++myParagraphIndex;
-			speakString(gotoNextParagraph());
-			if (myParagraphIndex >= myParagraphsNumber) {
-				stopTalking();
-			}
-		} else {
-			setActive(false);
-		}
-	}
-
-	private void highlightParagraph() throws ApiException {
-		if (0 <= myParagraphIndex && myParagraphIndex < myParagraphsNumber) {
-			myApi.highlightArea(
-				new TextPosition(myParagraphIndex, 0, 0),
-				new TextPosition(myParagraphIndex, Integer.MAX_VALUE, 0)
-			);
-		} else {
-			myApi.clearHighlighting();
-		}
-	}
-
-	private void stopTalking() {
-		setActive(false);
-		if (myTTS != null && myTTS.isSpeaking()) {
-			myTTS.stop();
-		}
+		});
 	}
 
-	private void showErrorMessage(final CharSequence text, final boolean fatal) {
+	// implements ReadingEngine.Listener
+	public void onBookOpened(final String title) {
 		runOnUiThread(new Runnable() {
 			public void run() {
-				if (fatal) {
-					setTitle(R.string.failure);
-				}
-				Toast.makeText(SpeakActivity.this, text, Toast.LENGTH_SHORT).show();
+				setTitle(title);
+				findViewById(R.id.speed_control).setEnabled(true);
 			}
 		});
 	}
 
-	private volatile PowerManager.WakeLock myWakeLock;
-
-	private synchronized void setActive(final boolean active) {
-		myIsActive = active;
-
+	// implements ReadingEngine.Listener
+	public void onStateChanged(final boolean active, final boolean canGoBackward, final boolean canGoForward) {
 		runOnUiThread(new Runnable() {
 			public void run() {
 				findViewById(R.id.button_play).setVisibility(active ? View.GONE : View.VISIBLE);
 				findViewById(R.id.button_pause).setVisibility(active ? View.VISIBLE : View.GONE);
+				findViewById(R.id.button_previous_paragraph).setEnabled(canGoBackward);
+				findViewById(R.id.button_next_paragraph).setEnabled(canGoForward);
+				findViewById(R.id.button_play).setEnabled(canGoForward);
 			}
 		});
-
-		if (active) {
-			if (myWakeLock == null) {
-				myWakeLock =
-					((PowerManager)getSystemService(POWER_SERVICE))
-						.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "FBReader TTS plugin");
-				myWakeLock.acquire();
-			}
-		} else {
-			if (myWakeLock != null) {
-				myWakeLock.release();
-				myWakeLock = null;
-			}
-		}
 	}
 
-	private void speakString(String text) {
-		HashMap<String, String> callbackMap = new HashMap<String, String>();
-		callbackMap.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, UTTERANCE_ID);
-		myTTS.speak(text, TextToSpeech.QUEUE_FLUSH, callbackMap);
+	// implements ReadingEngine.Listener
+	public void onMessage(CharSequence text, boolean fatal) {
+		showErrorMessage(text, fatal);
 	}
 
-	private void gotoPreviousParagraph() {
-		try {
-			for (int i = myParagraphIndex - 1; i >= 0; --i) {
-				if (myApi.getParagraphText(i).length() > 0) {
-					myParagraphIndex = i;
-					break;
-				}
-			}
-			if (myApi.getPageStart().ParagraphIndex >= myParagraphIndex) {
-				myApi.setPageStart(new TextPosition(myParagraphIndex, 0, 0));
-			}
-			highlightParagraph();
-			runOnUiThread(new Runnable() {
-				public void run() {
-					findViewById(R.id.button_next_paragraph).setEnabled(true);
-					findViewById(R.id.button_play).setEnabled(true);
-				}
-			});
-		} catch (ApiException e) {
-			e.printStackTrace();
-		}
-	}
-
-	private String gotoNextParagraph() {
-		try {
-			String text = "";
-			for (; myParagraphIndex < myParagraphsNumber; ++myParagraphIndex) {
-				final String s = myApi.getParagraphText(myParagraphIndex);
-				if (s.length() > 0) {
-					text = s;
-					break;
+	private void showErrorMessage(final CharSequence text, final boolean fatal) {
+		runOnUiThread(new Runnable() {
+			public void run() {
+				if (fatal) {
+					setTitle(R.string.failure);
 				}
+				Toast.makeText(SpeakActivity.this, text, Toast.LENGTH_SHORT).show();
 			}
-			if (!"".equals(text) && !myApi.isPageEndOfText()) {
-				myApi.setPageStart(new TextPosition(myParagraphIndex, 0, 0));
-			}
-			highlightParagraph();
-			if (myParagraphIndex >= myParagraphsNumber) {
-				runOnUiThread(new Runnable() {
-					public void run() {
-						findViewById(R.id.button_next_paragraph).setEnabled(false);
-						findViewById(R.id.button_play).setEnabled(false);
-					}
-				});
-			}
-			return text;
-		} catch (ApiException e) {
-			e.printStackTrace();
-			return "";
-		}
+		});
 	}
 }
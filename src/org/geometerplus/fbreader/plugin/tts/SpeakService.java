@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.File;
+
+import android.app.*;
+import android.content.*;
+import android.os.Binder;
+import android.os.Environment;
+import android.os.IBinder;
+import android.os.Process;
+import android.speech.tts.TextToSpeech;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyManager;
+
+import org.geometerplus.android.fbreader.api.*;
+
+/*
+ * Long-lived owner of the TextToSpeech instance, the FBReader API connection
+ * and the reading engine. SpeakActivity is a controller that attaches to
+ * this service, so reopening the panel does not pay engine initialization
+ * again and does not interrupt playback.
+ */
+public class SpeakService extends Service implements TextToSpeech.OnInitListener, ApiClientImplementation.ConnectionListener, ReadingEngine.Listener, AudiobookExporter.Listener {
+	static final String PREFIX_KEY = "prefix";
+	private static final int NOTIFICATION_ID = 1;
+	private static final int EXPORT_NOTIFICATION_ID = 2;
+
+	interface Listener extends ReadingEngine.Listener {
+		void onVoiceDataCheckRequired();
+	}
+
+	class LocalBinder extends Binder {
+		SpeakService getService() {
+			return SpeakService.this;
+		}
+	}
+
+	private final IBinder myBinder = new LocalBinder();
+
+	private ApiClientImplementation myApi;
+	private ReadingEngine myEngine;
+	private TextToSpeech myTTS;
+	// the initialized myTTS, owned by the engine
+	private SpeechEngine mySpeechEngine;
+	private VoiceDataCheckCache myCheckCache;
+	private boolean myCheckSkipped;
+	private AudiobookExporter myExporter;
+	private volatile int myExportPercent;
+
+	private volatile Listener myListener;
+
+	// last state reported by the engine, replayed to a newly attached listener
+	private volatile String myTitle;
+	private volatile boolean myIsActive;
+	private volatile boolean myCanGoBackward;
+	private volatile boolean myCanGoForward;
+
+	private final PhoneStateListener myPhoneStateListener = new PhoneStateListener() {
+		public void onCallStateChanged(int state, String incomingNumber) {
+			if (state == TelephonyManager.CALL_STATE_RINGING) {
+				final ReadingEngine engine = myEngine;
+				if (engine != null) {
+					engine.pause();
+				}
+			}
+		}
+	};
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		myCheckCache = new VoiceDataCheckCache(this, getSharedPreferences("FBReaderTTS", MODE_PRIVATE));
+		((TelephonyManager)getSystemService(TELEPHONY_SERVICE)).listen(
+			myPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE
+		);
+	}
+
+	// called on API level 4 only, newer levels call onStartCommand()
+	@Override
+	public void onStart(Intent intent, int startId) {
+		prepare(intent != null ? intent.getStringExtra(PREFIX_KEY) : null);
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		// the TextToSpeech engine and the FBReader API are initialized concurrently,
+		// without waiting for the activity to bind
+		prepare(intent != null ? intent.getStringExtra(PREFIX_KEY) : null);
+		return START_NOT_STICKY;
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return myBinder;
+	}
+
+	@Override
+	public void onDestroy() {
+		((TelephonyManager)getSystemService(TELEPHONY_SERVICE)).listen(
+			myPhoneStateListener, PhoneStateListener.LISTEN_NONE
+		);
+		shutdown();
+		super.onDestroy();
+	}
+
+	// returns false if the service was already prepared
+	private synchronized boolean prepare(String prefix) {
+		if (myApi != null) {
+			return false;
+		}
+		getTracer().markCold();
+		myApi = new ApiClientImplementation(
+			this, this, prefix != null ? prefix : ApiClientImplementation.FBREADER_PREFIX
+		);
+		myEngine = new ReadingEngine(
+			this, myApi, getSharedPreferences("FBReaderTTS", MODE_PRIVATE),
+			new HandlerEngineQueue("TTS reading engine", Process.THREAD_PRIORITY_AUDIO), this
+		);
+		if (myCheckCache.isPassed()) {
+			myCheckSkipped = true;
+			myTTS = new TextToSpeech(this, this);
+		}
+		return true;
+	}
+
+	/*
+	 * If the TextToSpeech engine is not created yet, the listener is asked
+	 * to check voice data and to call onVoiceDataCheckPassed().
+	 */
+	synchronized void attach(Listener listener, String prefix) {
+		myListener = listener;
+		if (!prepare(prefix)) {
+			myApi.connect();
+			final String title = myTitle;
+			if (title != null) {
+				listener.onBookOpened(title);
+			}
+			listener.onStateChanged(myIsActive, myCanGoBackward, myCanGoForward);
+			// an idle engine restarts from the page currently opened in FBReader
+			if (myInitializationStatus == FULLY_INITIALIZED && !myIsActive) {
+				myEngine.initialize(mySpeechEngine);
+			}
+		}
+		if (myTTS == null) {
+			listener.onVoiceDataCheckRequired();
+		}
+	}
+
+	synchronized void detach(Listener listener) {
+		if (myListener == listener) {
+			myListener = null;
+		}
+	}
+
+	synchronized void onVoiceDataCheckPassed() {
+		myCheckCache.setPassed();
+		if (myTTS == null && myEngine != null) {
+			myCheckSkipped = false;
+			myTTS = new TextToSpeech(this, this);
+		}
+	}
+
+	ReadingEngine getEngine() {
+		return myEngine;
+	}
+
+	private StartupTracer getTracer() {
+		return StartupTracer.getInstance(getSharedPreferences("FBReaderTTS", MODE_PRIVATE));
+	}
+
+	// API call statistics, dispatch, recovery and reading loop metrics; null if the API is not created
+	synchronized String getStatisticsReport() {
+		if (myApi == null) {
+			return null;
+		}
+		return myApi.getStatistics() +
+			"\n" + (myEngine != null ? myEngine.getStatistics() + "\n" : "") +
+			"\nevent dispatch: " + myApi.getDispatchStats() +
+			"\nrecoveries: " + myApi.getRecoveryCount() +
+			", last recovery time: " + myApi.getLastRecoveryTime() + " ms\n\n" +
+			getTracer().report();
+	}
+
+	synchronized boolean isExporting() {
+		return myExporter != null;
+	}
+
+	/*
+	 * Exports the current book into Audiobooks/ on the external storage.
+	 * An interrupted export continues from its checkpoint.
+	 */
+	synchronized void exportAudiobook() {
+		if (myApi == null || myExporter != null) {
+			return;
+		}
+		if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+			onMessage(getText(R.string.no_external_storage), false);
+			return;
+		}
+		final SharedPreferences preferences = getSharedPreferences("FBReaderTTS", MODE_PRIVATE);
+		myExportPercent = -1;
+		myExporter = new AudiobookExporter(
+			this,
+			myApi,
+			new File(Environment.getExternalStorageDirectory(), "Audiobooks"),
+			(float)Math.pow(2.0, (preferences.getInt("rate", 100) - 100.0) / 75),
+			preferences.getInt("exportWorkers", AudiobookExporter.DEFAULT_WORKERS),
+			this
+		);
+		myExporter.start();
+	}
+
+	synchronized void cancelExport() {
+		if (myExporter != null) {
+			myExporter.cancel();
+			myExporter = null;
+			((NotificationManager)getSystemService(NOTIFICATION_SERVICE)).cancel(EXPORT_NOTIFICATION_ID);
+		}
+	}
+
+	synchronized void shutdown() {
+		cancelExport();
+		if (myEngine != null) {
+			myEngine.shutdown();
+			myEngine = null;
+		}
+		// after initialization the engine owns the TextToSpeech instance
+		if (myTTS != null && myInitializationStatus != FULLY_INITIALIZED) {
+			myTTS.shutdown();
+		}
+		myTTS = null;
+		mySpeechEngine = null;
+		myApi = null;
+		myInitializationStatus = 0;
+		myTitle = null;
+		myIsActive = false;
+		Compatibility.stopForeground(this, NOTIFICATION_ID);
+		stopSelf();
+	}
+
+	private volatile int myInitializationStatus;
+	private static int API_INITIALIZED = 1;
+	private static int TTS_INITIALIZED = 2;
+	private static int FULLY_INITIALIZED = API_INITIALIZED | TTS_INITIALIZED;
+
+	// implements ApiClientImplementation.ConnectionListener
+	public void onConnected() {
+		if (myInitializationStatus != FULLY_INITIALIZED) {
+			getTracer().mark(StartupTracer.API_CONNECTED);
+			myInitializationStatus |= API_INITIALIZED;
+			if (myInitializationStatus == FULLY_INITIALIZED) {
+				onInitializationCompleted();
+			}
+		} else {
+			// reconnected after FBReader service death
+			final ReadingEngine engine = myEngine;
+			if (engine != null) {
+				engine.onReconnected();
+			}
+		}
+	}
+
+	// implements TextToSpeech.OnInitListener
+	public void onInit(int status) {
+		if (status == TextToSpeech.ERROR) {
+			final boolean checkSkipped;
+			synchronized (this) {
+				myCheckCache.invalidate();
+				if (myTTS != null) {
+					myTTS.shutdown();
+					myTTS = null;
+				}
+				checkSkipped = myCheckSkipped;
+			}
+			final Listener listener = myListener;
+			if (listener != null) {
+				if (checkSkipped) {
+					// the cached check result is outdated, run the full check again
+					listener.onVoiceDataCheckRequired();
+				} else {
+					listener.onMessage(getText(R.string.no_tts_installed), true);
+				}
+			}
+			return;
+		}
+		if (myInitializationStatus != FULLY_INITIALIZED) {
+			getTracer().mark(StartupTracer.TTS_INITIALIZED);
+			myInitializationStatus |= TTS_INITIALIZED;
+			if (myInitializationStatus == FULLY_INITIALIZED) {
+				onInitializationCompleted();
+			}
+		}
+	}
+
+	private synchronized void onInitializationCompleted() {
+		getTracer().mark(StartupTracer.INITIALIZATION_COMPLETED);
+		if (myEngine != null) {
+			mySpeechEngine = new TextToSpeechEngine(myTTS);
+			myEngine.initialize(mySpeechEngine);
+		}
+	}
+
+	// implements ReadingEngine.Listener
+	public void onBookOpened(String title) {
+		myTitle = title;
+		final Listener listener = myListener;
+		if (listener != null) {
+			listener.onBookOpened(title);
+		}
+	}
+
+	// implements ReadingEngine.Listener
+	public void onStateChanged(boolean active, boolean canGoBackward, boolean canGoForward) {
+		if (active != myIsActive) {
+			if (active) {
+				Compatibility.startForeground(this, NOTIFICATION_ID, createNotification());
+			} else {
+				Compatibility.stopForeground(this, NOTIFICATION_ID);
+			}
+		}
+		myIsActive = active;
+		myCanGoBackward = canGoBackward;
+		myCanGoForward = canGoForward;
+		final Listener listener = myListener;
+		if (listener != null) {
+			listener.onStateChanged(active, canGoBackward, canGoForward);
+		}
+	}
+
+	// implements ReadingEngine.Listener
+	public void onMessage(CharSequence text, boolean fatal) {
+		final Listener listener = myListener;
+		if (listener != null) {
+			listener.onMessage(text, fatal);
+		}
+	}
+
+	// implements AudiobookExporter.Listener
+	public void onExportProgress(int paragraphIndex, int paragraphsNumber) {
+		final int percent = (int)(100L * paragraphIndex / Math.max(paragraphsNumber, 1));
+		if (percent != myExportPercent) {
+			myExportPercent = percent;
+			final CharSequence text = getText(R.string.export_progress).toString()
+				.replace("%0", String.valueOf(percent));
+			final Notification notification = new Notification(
+				R.drawable.fbreader_plugin, null, System.currentTimeMillis()
+			);
+			notification.flags |= Notification.FLAG_ONGOING_EVENT | Notification.FLAG_NO_CLEAR;
+			notification.setLatestEventInfo(this, getText(R.string.title), text, createContentIntent());
+			((NotificationManager)getSystemService(NOTIFICATION_SERVICE)).notify(EXPORT_NOTIFICATION_ID, notification);
+		}
+	}
+
+	// implements AudiobookExporter.Listener
+	public void onExportFinished(File directory, String report, String error) {
+		synchronized (this) {
+			myExporter = null;
+		}
+		((NotificationManager)getSystemService(NOTIFICATION_SERVICE)).cancel(EXPORT_NOTIFICATION_ID);
+		if (error == null) {
+			onMessage(getText(R.string.export_completed).toString().replace("%0", directory.getPath()), false);
+		} else {
+			onMessage(getText(R.string.export_failed).toString().replace("%0", error), false);
+		}
+	}
+
+	private PendingIntent createContentIntent() {
+		final Intent intent = new Intent(this, SpeakActivity.class);
+		intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+		return PendingIntent.getActivity(this, 0, intent, 0);
+	}
+
+	private Notification createNotification() {
+		final CharSequence title = myTitle != null ? myTitle : getText(R.string.title);
+		final Notification notification = new Notification(
+			R.drawable.fbreader_plugin, title, System.currentTimeMillis()
+		);
+		notification.flags |= Notification.FLAG_ONGOING_EVENT | Notification.FLAG_NO_CLEAR;
+		notification.setLatestEventInfo(this, title, getText(R.string.title), createContentIntent());
+		return notification;
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.Locale;
+
+/*
+ * The part of TextToSpeech used by the reading engine. On the device it is
+ * TextToSpeechEngine; the reading loop simulator runs the engine with a fake.
+ * Methods return false where TextToSpeech returns ERROR.
+ */
+interface SpeechEngine {
+	interface Listener {
+		void onUtteranceCompleted(String utteranceId);
+	}
+
+	void setListener(Listener listener);
+
+	boolean isLanguageAvailable(Locale locale);
+	void setLanguage(Locale locale);
+	void setSpeechRate(float rate);
+
+	// with flush, the queued utterances (synthesis requests included) are dropped
+	boolean speak(String text, boolean flush, String utteranceId);
+	boolean synthesizeToFile(String text, String utteranceId, String fileName);
+	boolean isSpeaking();
+	void stop();
+
+	void shutdown();
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.*;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+/*
+ * Time-to-first-speech tracer. A launch begins in SpeakActivity.onCreate()
+ * and ends when the first utterance is passed to the engine; each phase is
+ * recorded as the offset from the launch start, in milliseconds, using
+ * elapsedRealtime(). Phases that do not happen in a launch (e.g. the voice
+ * data check skipped by VoiceDataCheckCache) are recorded as -1.
+ * Only cold launches, in which the service creates the API connection and
+ * the engine, are recorded; the last HISTORY_SIZE of them are kept in
+ * preferences. Warm launches over a running service are discarded.
+ */
+final class StartupTracer {
+	static final int VOICE_CHECK_STARTED = 0;
+	static final int VOICE_CHECK_DONE = 1;
+	static final int TTS_INITIALIZED = 2;
+	static final int API_CONNECTED = 3;
+	static final int INITIALIZATION_COMPLETED = 4;
+	static final int FIRST_SPEECH = 5;
+	private static final String[] PHASE_NAMES = {
+		"voice check started",
+		"voice check done",
+		"tts initialized",
+		"api connected",
+		"initialization completed",
+		"first speech"
+	};
+
+	private static final int HISTORY_SIZE = 20;
+	private static final long STALE_TIME = 60000;
+	private static final String HISTORY_KEY = "startupHistory";
+
+	private static StartupTracer ourInstance;
+
+	static synchronized StartupTracer getInstance(SharedPreferences preferences) {
+		if (ourInstance == null) {
+			ourInstance = new StartupTracer(preferences);
+		}
+		return ourInstance;
+	}
+
+	private final SharedPreferences myPreferences;
+	private final LinkedList<long[]> myHistory = new LinkedList<long[]>();
+	// start time of the launch in progress, 0 if there is none
+	private long myStartTime;
+	// whether the launch in progress has created the service state
+	private boolean myIsCold;
+	private final long[] myOffsets = new long[PHASE_NAMES.length];
+
+	private StartupTracer(SharedPreferences preferences) {
+		myPreferences = preferences;
+		for (String line : preferences.getString(HISTORY_KEY, "").split("\n")) {
+			final String[] fields = line.split(",");
+			if (fields.length != PHASE_NAMES.length) {
+				continue;
+			}
+			final long[] offsets = new long[fields.length];
+			try {
+				for (int i = 0; i < fields.length; ++i) {
+					offsets[i] = Long.parseLong(fields[i]);
+				}
+				myHistory.add(offsets);
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	/*
+	 * A launch already in progress (e.g. the panel is reopened during startup)
+	 * is continued, unless it is older than STALE_TIME, i.e. never reached speech.
+	 */
+	synchronized void begin() {
+		final long now = SystemClock.elapsedRealtime();
+		if (myStartTime == 0 || now - myStartTime > STALE_TIME) {
+			myStartTime = now;
+			myIsCold = false;
+			Arrays.fill(myOffsets, -1);
+		}
+	}
+
+	// called when the service creates the API connection and the engine
+	synchronized void markCold() {
+		if (myStartTime != 0) {
+			myIsCold = true;
+		}
+	}
+
+	// only the first occurrence of a phase in a launch is recorded
+	synchronized void mark(int phase) {
+		if (myStartTime == 0 || myOffsets[phase] != -1) {
+			return;
+		}
+		myOffsets[phase] = SystemClock.elapsedRealtime() - myStartTime;
+		if (phase == FIRST_SPEECH) {
+			finish();
+		}
+	}
+
+	// warm launches (the panel reopened over a running service) are not recorded
+	private void finish() {
+		myStartTime = 0;
+		if (!myIsCold) {
+			return;
+		}
+		myHistory.add(myOffsets.clone());
+		while (myHistory.size() > HISTORY_SIZE) {
+			myHistory.removeFirst();
+		}
+		final StringBuilder history = new StringBuilder();
+		for (long[] offsets : myHistory) {
+			for (int i = 0; i < offsets.length; ++i) {
+				if (i > 0) {
+					history.append(',');
+				}
+				history.append(offsets[i]);
+			}
+			history.append('\n');
+		}
+		myPreferences.edit().putString(HISTORY_KEY, history.toString()).commit();
+		Log.d("FBReaderTTS", "startup: " + Arrays.toString(myOffsets) + "\n" + report());
+	}
+
+	// p50/p90/max of each phase offset over the recorded launches
+	synchronized String report() {
+		final StringBuilder report = new StringBuilder();
+		report.append("startup phases over ").append(myHistory.size()).append(" cold launches, ms (p50/p90/max):\n");
+		for (int phase = 0; phase < PHASE_NAMES.length; ++phase) {
+			final ArrayList<Long> values = new ArrayList<Long>(myHistory.size());
+			for (long[] offsets : myHistory) {
+				if (offsets[phase] != -1) {
+					values.add(offsets[phase]);
+				}
+			}
+			report.append(PHASE_NAMES[phase]).append(": ");
+			if (values.isEmpty()) {
+				report.append("-\n");
+				continue;
+			}
+			Collections.sort(values);
+			report.append(percentile(values, 50)).append('/')
+				.append(percentile(values, 90)).append('/')
+				.append(values.get(values.size() - 1))
+				.append(" (").append(values.size()).append(" launches)\n");
+		}
+		return report.toString();
+	}
+
+	// nearest-rank percentile of sorted values
+	private static long percentile(List<Long> sorted, int percent) {
+		final int rank = (sorted.size() * percent + 99) / 100;
+		return sorted.get(Math.max(rank, 1) - 1);
+	}
+}
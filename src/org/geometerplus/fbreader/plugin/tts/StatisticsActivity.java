@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.io.*;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Environment;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/*
+ * Debug screen showing a snapshot of API call statistics,
+ * the snapshot can be saved to the external storage.
+ */
+public class StatisticsActivity extends Activity {
+	static final String REPORT_KEY = "report";
+	private static final int MENU_SAVE = 1;
+
+	private String myReport;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		myReport = getIntent().getStringExtra(REPORT_KEY);
+		if (myReport == null) {
+			myReport = "";
+		}
+		final TextView text = new TextView(this);
+		text.setTypeface(Typeface.MONOSPACE);
+		text.setText(myReport);
+		final ScrollView scroll = new ScrollView(this);
+		scroll.addView(text);
+		setContentView(scroll);
+		setTitle(R.string.statistics_menu_item);
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		menu.add(0, MENU_SAVE, 0, R.string.save_statistics_menu_item);
+		return super.onCreateOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		if (item.getItemId() == MENU_SAVE) {
+			save();
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	private void save() {
+		final File file = new File(Environment.getExternalStorageDirectory(), "fbreader_tts_statistics.txt");
+		Writer writer = null;
+		try {
+			writer = new FileWriter(file);
+			writer.write(myReport);
+			Toast.makeText(this, file.getPath(), Toast.LENGTH_SHORT).show();
+		} catch (IOException e) {
+			Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
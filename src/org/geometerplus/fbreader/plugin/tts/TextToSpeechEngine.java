@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import android.speech.tts.TextToSpeech;
+
+/*
+ * TextToSpeech behind the SpeechEngine interface. TextToSpeech copies
+ * the parameters of a request, so one parameter map serves all requests;
+ * like the engine itself, it must be used on one thread.
+ */
+final class TextToSpeechEngine implements SpeechEngine, TextToSpeech.OnUtteranceCompletedListener {
+	private final TextToSpeech myTTS;
+	private final HashMap<String,String> myParameters = new HashMap<String,String>();
+	private volatile Listener myListener;
+
+	TextToSpeechEngine(TextToSpeech tts) {
+		myTTS = tts;
+	}
+
+	// TextToSpeech accepts the listener after its initialization only
+	public void setListener(Listener listener) {
+		myListener = listener;
+		myTTS.setOnUtteranceCompletedListener(this);
+	}
+
+	public boolean isLanguageAvailable(Locale locale) {
+		return myTTS.isLanguageAvailable(locale) >= 0;
+	}
+
+	public void setLanguage(Locale locale) {
+		myTTS.setLanguage(locale);
+	}
+
+	public void setSpeechRate(float rate) {
+		myTTS.setSpeechRate(rate);
+	}
+
+	public boolean speak(String text, boolean flush, String utteranceId) {
+		myParameters.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
+		return myTTS.speak(
+			text, flush ? TextToSpeech.QUEUE_FLUSH : TextToSpeech.QUEUE_ADD, myParameters
+		) == TextToSpeech.SUCCESS;
+	}
+
+	public boolean synthesizeToFile(String text, String utteranceId, String fileName) {
+		myParameters.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
+		return myTTS.synthesizeToFile(text, myParameters, fileName) == TextToSpeech.SUCCESS;
+	}
+
+	public boolean isSpeaking() {
+		return myTTS.isSpeaking();
+	}
+
+	public void stop() {
+		myTTS.stop();
+	}
+
+	public void shutdown() {
+		myTTS.shutdown();
+	}
+
+	// implements TextToSpeech.OnUtteranceCompletedListener
+	public void onUtteranceCompleted(String utteranceId) {
+		final Listener listener = myListener;
+		if (listener != null) {
+			listener.onUtteranceCompleted(utteranceId);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import org.geometerplus.android.fbreader.api.TextPosition;
+
+final class Utterance {
+	final int ParagraphIndex;
+	final String Text;
+	final TextPosition Start;
+	final TextPosition End;
+
+	Utterance(int paragraphIndex, String text, TextPosition start, TextPosition end) {
+		ParagraphIndex = paragraphIndex;
+		Text = text;
+		Start = start;
+		End = end;
+	}
+
+	Utterance(int paragraphIndex, String text) {
+		this(
+			paragraphIndex,
+			text,
+			TextPosition.paragraphStart(paragraphIndex),
+			TextPosition.paragraphEnd(paragraphIndex)
+		);
+	}
+}
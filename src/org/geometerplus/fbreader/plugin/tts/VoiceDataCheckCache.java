@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2009-2011 Geometer Plus <contact@geometerplus.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.plugin.tts;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.provider.Settings;
+
+/*
+ * Remembers a passed ACTION_CHECK_TTS_DATA result for the default engine,
+ * so the check activity is started only when the engine package or its
+ * version changes, or when the engine fails to initialize.
+ */
+final class VoiceDataCheckCache {
+	private static final String KEY = "voiceDataCheckedFor";
+	private static final String DEFAULT_ENGINE = "com.svox.pico";
+
+	private final Context myContext;
+	private final SharedPreferences myPreferences;
+
+	VoiceDataCheckCache(Context context, SharedPreferences preferences) {
+		myContext = context;
+		myPreferences = preferences;
+	}
+
+	private String engineKey() {
+		String engine = Settings.Secure.getString(
+			myContext.getContentResolver(), Settings.Secure.TTS_DEFAULT_SYNTH
+		);
+		if (engine == null || engine.length() == 0) {
+			engine = DEFAULT_ENGINE;
+		}
+		try {
+			return engine + ":" + myContext.getPackageManager().getPackageInfo(engine, 0).versionCode;
+		} catch (PackageManager.NameNotFoundException e) {
+			return null;
+		}
+	}
+
+	boolean isPassed() {
+		final String key = engineKey();
+		return key != null && key.equals(myPreferences.getString(KEY, null));
+	}
+
+	void setPassed() {
+		final String key = engineKey();
+		if (key != null) {
+			myPreferences.edit().putString(KEY, key).commit();
+		}
+	}
+
+	void invalidate() {
+		myPreferences.edit().remove(KEY).commit();
+	}
+}
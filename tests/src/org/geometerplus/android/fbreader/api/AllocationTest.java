@@ -0,0 +1,139 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import android.content.ComponentName;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+/*
+ * The client side of the reading loop must not allocate once warmed up:
+ * small integer and boolean envelopes, paragraph boundary positions,
+ * parameter arrays of requests sent through the client, the reused view
+ * update batch and posting a reused view update call.
+ * Allocations are counted by Dalvik for the current thread; the fake
+ * service runs on it and does not allocate for these requests.
+ */
+public class AllocationTest extends AndroidTestCase {
+	private static final int ITERATIONS = 1000;
+
+	private static abstract class Loop {
+		abstract void run(int i) throws Exception;
+	}
+
+	private static int countAllocations(Loop loop) throws Exception {
+		// warm-up: caches, per-thread buffers and lazily loaded classes
+		for (int i = 0; i < ITERATIONS; ++i) {
+			loop.run(i);
+		}
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		try {
+			for (int i = 0; i < ITERATIONS; ++i) {
+				loop.run(i);
+			}
+			return Debug.getThreadAllocCount();
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	public void testEnvelopes() throws Exception {
+		assertEquals(0, countAllocations(new Loop() {
+			void run(int i) {
+				ApiObject.envelope(i % 1024);
+				ApiObject.envelope(i % 2 == 0);
+			}
+		}));
+		assertSame(ApiObject.envelope(17), ApiObject.envelope(17));
+		assertSame(ApiObject.envelope(true), ApiObject.envelope(true));
+	}
+
+	public void testParagraphBoundaries() throws Exception {
+		assertEquals(0, countAllocations(new Loop() {
+			void run(int i) {
+				TextPosition.paragraphStart(i % 32);
+				TextPosition.paragraphEnd(i % 32);
+			}
+		}));
+		assertSame(TextPosition.paragraphStart(5), TextPosition.paragraphStart(5));
+		assertSame(TextPosition.paragraphEnd(5), TextPosition.paragraphEnd(5));
+	}
+
+	private ApiClientImplementation connect() {
+		final ApiClientImplementation client = new ApiClientImplementation(
+			new FakeApiInterface.FakeContext(getContext()), null, ApiClientImplementation.FBREADER_PREFIX
+		);
+		client.onServiceConnected(new ComponentName("org.geometerplus.zlibrary.ui.android", "ApiService"), new FakeApiInterface(10));
+		return client;
+	}
+
+	public void testRequestParameters() throws Exception {
+		final ApiClientImplementation client = connect();
+		try {
+			assertEquals(0, countAllocations(new Loop() {
+				void run(int i) throws ApiException {
+					client.getParagraphText(i % 10);
+				}
+			}));
+		} finally {
+			client.disconnect();
+		}
+	}
+
+	// the batch sent by the reading engine for a page turn
+	public void testViewUpdateBatch() throws Exception {
+		final ApiClientImplementation client = connect();
+		final ApiClientImplementation.Batch batch = client.batch();
+		try {
+			assertEquals(0, countAllocations(new Loop() {
+				void run(int i) throws ApiException {
+					final int index = i % 10;
+					batch.clear();
+					batch.setPageStart(TextPosition.paragraphStart(index));
+					final int highlighting = batch.size();
+					batch.highlightArea(TextPosition.paragraphStart(index), TextPosition.paragraphEnd(index));
+					final int endOfText = batch.size();
+					batch.isPageEndOfText();
+					final ApiClientImplementation.Results results = batch.execute();
+					results.check(highlighting);
+					results.getBoolean(endOfText);
+				}
+			}));
+		} finally {
+			client.disconnect();
+		}
+	}
+
+	private static class CountingCall implements AsyncApi.Call<Object> {
+		volatile int Count;
+
+		public Object call(Api api) {
+			++Count;
+			return null;
+		}
+	}
+
+	// allocations of the posting thread, the call itself runs on the view queue thread
+	public void testPostedCalls() throws Exception {
+		final ApiClientImplementation client = connect();
+		final AsyncApi asyncApi = new AsyncApi(client, 1);
+		final CountingCall call = new CountingCall();
+		try {
+			assertEquals(0, countAllocations(new Loop() {
+				void run(int i) {
+					final int count = call.Count + 1;
+					asyncApi.post(call);
+					while (call.Count < count) {
+						Thread.yield();
+					}
+				}
+			}));
+		} finally {
+			asyncApi.shutdown(1000);
+			client.disconnect();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.content.ComponentName;
+import android.test.AndroidTestCase;
+
+/*
+ * Requests from several threads racing with connection state changes.
+ * A request must either succeed or fail with ApiException; a client
+ * disconnected meanwhile must never be connected again by a late
+ * onServiceConnected().
+ */
+public class ApiClientImplementationStressTest extends AndroidTestCase {
+	private static final int THREADS = 8;
+	private static final int REQUESTS_PER_THREAD = 5000;
+	private static final int STATE_CHANGES = 1000;
+
+	private final ComponentName myName = new ComponentName("org.geometerplus.zlibrary.ui.android", "ApiService");
+	private FakeApiInterface.FakeContext myContext;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		myContext = new FakeApiInterface.FakeContext(getContext());
+	}
+
+	public void testRequestsDuringReconnects() throws Exception {
+		final ApiClientImplementation client =
+			new ApiClientImplementation(myContext, null, ApiClientImplementation.FBREADER_PREFIX);
+		client.onServiceConnected(myName, new FakeApiInterface(10));
+
+		final AtomicInteger successCount = new AtomicInteger();
+		final AtomicInteger failureCount = new AtomicInteger();
+		final AtomicReference<Throwable> unexpected = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; ++i) {
+			threads[i] = new Thread("request " + i) {
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < REQUESTS_PER_THREAD; ++j) {
+							try {
+								assertEquals(FakeApiInterface.TITLE, client.getBookTitle());
+								assertEquals("paragraph " + (j % 10), client.getParagraphText(j % 10));
+								successCount.incrementAndGet();
+							} catch (ApiException e) {
+								failureCount.incrementAndGet();
+							}
+						}
+					} catch (Throwable t) {
+						unexpected.compareAndSet(null, t);
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		start.countDown();
+		for (int i = 0; i < STATE_CHANGES; ++i) {
+			client.onServiceDisconnected(myName);
+			assertFalse(client.isConnected());
+			client.onServiceConnected(myName, new FakeApiInterface(10));
+			assertTrue(client.isConnected());
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (unexpected.get() != null) {
+			throw new AssertionError(unexpected.get());
+		}
+		assertEquals(THREADS * REQUESTS_PER_THREAD, successCount.get() + failureCount.get());
+		assertTrue(successCount.get() > 0);
+		assertTrue(client.isConnected());
+		// each reconnection is counted by its state replay thread
+		for (int i = 0; i < 500 && client.getRecoveryCount() < STATE_CHANGES; ++i) {
+			Thread.sleep(10);
+		}
+		assertEquals(STATE_CHANGES, client.getRecoveryCount());
+		client.disconnect();
+	}
+
+	public void testDisconnectRacingWithConnection() throws Exception {
+		final ApiClientImplementation client =
+			new ApiClientImplementation(myContext, null, ApiClientImplementation.FBREADER_PREFIX);
+		for (int i = 0; i < STATE_CHANGES; ++i) {
+			client.connect();
+			final CountDownLatch start = new CountDownLatch(1);
+			final Thread connector = new Thread("connector") {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					client.onServiceConnected(myName, new FakeApiInterface(1));
+				}
+			};
+			connector.start();
+			start.countDown();
+			client.disconnect();
+			connector.join();
+			assertFalse(client.isConnected());
+			try {
+				client.getBookTitle();
+				fail("request succeeded on a disconnected client");
+			} catch (ApiException e) {
+			}
+		}
+	}
+
+	public void testRepeatedConnectBindsOnce() throws Exception {
+		final ApiClientImplementation client =
+			new ApiClientImplementation(myContext, null, ApiClientImplementation.FBREADER_PREFIX);
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; ++i) {
+			threads[i] = new Thread("connect " + i) {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					client.connect();
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, myContext.BindCount.get());
+		client.disconnect();
+	}
+}
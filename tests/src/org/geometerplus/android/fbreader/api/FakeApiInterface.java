@@ -0,0 +1,223 @@
+/*
+ * This code is in the public domain.
+ */
+
+package org.geometerplus.android.fbreader.api;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.*;
+
+/*
+ * In-process FBReader API service. asInterface() returns a local stub as is,
+ * so requests are plain method calls on the calling thread.
+ * The book is a list of paragraph texts, "paragraph i" by default; pages
+ * are PAGE_SIZE paragraphs long and start where setPageStart() puts them.
+ * Each transaction (a BATCH one included) takes the given latency plus
+ * a uniformly distributed jitter, in microseconds.
+ * Methods the reading loop does not use return an error.
+ * Requests for paragraphs, pages and highlighting do not allocate once
+ * warmed up, so that AllocationTest counts the client only; BATCH results
+ * are kept in a per-thread list, valid until the next BATCH of the thread.
+ */
+public class FakeApiInterface extends ApiInterface.Stub {
+	public static final String TITLE = "Fake book";
+	public static final int PAGE_SIZE = 4;
+
+	/*
+	 * Context that never binds, the test passes the service to
+	 * onServiceConnected() itself.
+	 */
+	public static class FakeContext extends ContextWrapper {
+		public final AtomicInteger BindCount = new AtomicInteger();
+
+		public FakeContext(Context base) {
+			super(base);
+		}
+
+		@Override
+		public boolean bindService(Intent service, ServiceConnection connection, int flags) {
+			BindCount.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public void unbindService(ServiceConnection connection) {
+		}
+
+		@Override
+		public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+			return null;
+		}
+
+		@Override
+		public void unregisterReceiver(BroadcastReceiver receiver) {
+		}
+	}
+
+	// transactions served, BATCH counts as one
+	public final AtomicInteger CallCount = new AtomicInteger();
+	private final ApiObject myTitle;
+	private final ApiObject myHash;
+	private final String[] myParagraphs;
+	private final ApiObject[] myTexts;
+	private final long myLatency;
+	private final long myJitter;
+	private final Random myRandom = new Random(0);
+	private TextPosition myPageStart = TextPosition.paragraphStart(0);
+	private final ThreadLocal<ArrayList<ApiObject>> myBatchResults = new ThreadLocal<ArrayList<ApiObject>>() {
+		@Override
+		protected ArrayList<ApiObject> initialValue() {
+			return new ArrayList<ApiObject>();
+		}
+	};
+
+	public FakeApiInterface(int paragraphsNumber) {
+		this(TITLE, defaultParagraphs(paragraphsNumber), 0, 0);
+	}
+
+	public FakeApiInterface(String title, String[] paragraphs, long latency, long jitter) {
+		myTitle = ApiObject.envelope(title);
+		myHash = ApiObject.envelope(Integer.toHexString(Arrays.hashCode(paragraphs)));
+		myParagraphs = paragraphs;
+		myTexts = new ApiObject[paragraphs.length];
+		for (int i = 0; i < paragraphs.length; ++i) {
+			myTexts[i] = ApiObject.envelope(paragraphs[i]);
+		}
+		myLatency = latency;
+		myJitter = jitter;
+	}
+
+	private static String[] defaultParagraphs(int paragraphsNumber) {
+		final String[] paragraphs = new String[paragraphsNumber];
+		for (int i = 0; i < paragraphsNumber; ++i) {
+			paragraphs[i] = "paragraph " + i;
+		}
+		return paragraphs;
+	}
+
+	private void delay() {
+		if (myLatency == 0 && myJitter == 0) {
+			return;
+		}
+		final long micros = myLatency + (myJitter > 0 ? (long)(myRandom.nextDouble() * myJitter) : 0);
+		try {
+			Thread.sleep(micros / 1000, (int)(micros % 1000) * 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized TextPosition pageStart() {
+		return myPageStart;
+	}
+
+	private synchronized void setPageStart(TextPosition position) {
+		myPageStart = position;
+	}
+
+	private int pageEndIndex() {
+		return Math.min(pageStart().ParagraphIndex + PAGE_SIZE, myParagraphs.length) - 1;
+	}
+
+	private ApiObject paragraphText(ApiObject[] parameters, int offset) {
+		final int index = ((ApiObject.Integer)parameters[offset]).Value;
+		return 0 <= index && index < myParagraphs.length
+			? myTexts[index] : new ApiObject.Error("No paragraph " + index);
+	}
+
+	// the parameters of the request start at offset
+	private ApiObject handle(int method, ApiObject[] parameters, int offset) {
+		switch (method) {
+			case ApiMethods.GET_BOOK_TITLE:
+				return myTitle;
+			case ApiMethods.GET_BOOK_LANGUAGE:
+				return ApiObject.envelope("en");
+			case ApiMethods.GET_BOOK_FILE_PATH:
+				return ApiObject.envelope("/" + ((ApiObject.String)myTitle).Value + ".txt");
+			case ApiMethods.GET_BOOK_HASH:
+				return myHash;
+			case ApiMethods.GET_PARAGRAPHS_NUMBER:
+				return ApiObject.envelope(myParagraphs.length);
+			case ApiMethods.GET_PARAGRAPH_TEXT:
+				return paragraphText(parameters, offset);
+			case ApiMethods.GET_PARAGRAPH_WORDS_ARRAY:
+			{
+				final ApiObject text = paragraphText(parameters, offset);
+				return text instanceof ApiObject.String
+					? ApiObject.envelope(((ApiObject.String)text).Value.split(" ")) : text;
+			}
+			case ApiMethods.GET_PARAGRAPH_WORD_INDICES_ARRAY:
+			{
+				final ApiObject text = paragraphText(parameters, offset);
+				if (!(text instanceof ApiObject.String)) {
+					return text;
+				}
+				final int[] indices = new int[((ApiObject.String)text).Value.split(" ").length];
+				for (int i = 0; i < indices.length; ++i) {
+					indices[i] = i;
+				}
+				return ApiObject.envelope(indices);
+			}
+			case ApiMethods.GET_PAGE_START:
+				return pageStart();
+			case ApiMethods.GET_PAGE_END:
+				return TextPosition.paragraphEnd(pageEndIndex());
+			case ApiMethods.IS_PAGE_END_OF_TEXT:
+				return ApiObject.envelope(pageEndIndex() == myParagraphs.length - 1);
+			case ApiMethods.SET_PAGE_START:
+				setPageStart((TextPosition)parameters[offset]);
+				return ApiObject.Void.Instance;
+			case ApiMethods.HIGHLIGHT_AREA:
+			case ApiMethods.CLEAR_HIGHLIGHTING:
+				return ApiObject.Void.Instance;
+			default:
+				return new ApiObject.Error("Unsupported method " + method);
+		}
+	}
+
+	public ApiObject request(int method, ApiObject[] parameters) {
+		CallCount.incrementAndGet();
+		delay();
+		return handle(method, parameters, 0);
+	}
+
+	public List<ApiObject> requestList(int method, ApiObject[] parameters) {
+		CallCount.incrementAndGet();
+		delay();
+		switch (method) {
+			case ApiMethods.GET_PARAGRAPH_TEXTS:
+			{
+				final int start = ((ApiObject.Integer)parameters[0]).Value;
+				final int end = Math.min(start + ((ApiObject.Integer)parameters[1]).Value, myParagraphs.length);
+				final TreeMap<Integer,String> texts = new TreeMap<Integer,String>();
+				for (int i = Math.max(start, 0); i < end; ++i) {
+					if (myParagraphs[i].length() > 0) {
+						texts.put(i, myParagraphs[i]);
+					}
+				}
+				return ApiObject.envelopeParagraphTexts(texts);
+			}
+			case ApiMethods.BATCH:
+			{
+				final ArrayList<ApiObject> results = myBatchResults.get();
+				results.clear();
+				for (int i = 0; i < parameters.length; ) {
+					final int subMethod = ((ApiObject.Integer)parameters[i++]).Value;
+					final int count = ((ApiObject.Integer)parameters[i++]).Value;
+					results.add(handle(subMethod, parameters, i));
+					i += count;
+				}
+				return results;
+			}
+			default:
+				return Collections.<ApiObject>singletonList(new ApiObject.Error("Unsupported method " + method));
+		}
+	}
+
+	public Map requestMap(int method, ApiObject[] parameters) {
+		CallCount.incrementAndGet();
+		return Collections.emptyMap();
+	}
+}